@@ -0,0 +1,126 @@
+/* AsyncRenderer.java
+ * Compilation: javac AsyncRenderer.java
+ *
+ * Dependencies:
+ * Routes.java, RoundObserver.java, FrameRenderer.java,
+ * CompactFlowNetwork.java, PointIndex.java
+ *
+ * Description: AsyncRenderer draws a simulation on a thread of its own,
+ * so that drawing never holds the simulation up.  After every round the
+ * simulation copies the roads' flows into a snapshot and queues it; the
+ * drawing thread takes snapshots off the queue and hands them to a
+ * FrameRenderer.  The queue is bounded, and snapshot buffers are
+ * recycled, so when drawing falls behind, the oldest waiting frame is
+ * dropped to make room for the newest; the simulation never waits and
+ * never allocates after the first few rounds.  Call close() after the
+ * last round to draw the frames still waiting and stop the thread.
+ */
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+public class AsyncRenderer implements RoundObserver {
+    private static final Frame END = new Frame(0); // tells the drawing thread to stop
+
+    private final FrameRenderer renderer;
+    private final BlockingQueue<Frame> waiting; // frames to draw, oldest first
+    private final BlockingQueue<Frame> spare; // drawn frames, ready for reuse
+    private final int maxFrames; // frames ever allocated
+    private int frames; // frames allocated so far
+    private long dropped; // frames dropped so far
+    private final Thread thread;
+    private volatile RuntimeException failure; // what stopped the drawing thread, if anything
+
+    // a snapshot of one round
+    private static class Frame {
+        CompactFlowNetwork network;
+        PointIndex joints;
+        final double[] flow;
+        int round;
+        double hazardRadius;
+
+        Frame(int E) {
+            flow = new double[E];
+        }
+    }
+
+    // draws with renderer on a new thread, keeping at most queueSize
+    // frames waiting
+    public AsyncRenderer(FrameRenderer renderer, int queueSize) {
+        if (queueSize < 1) throw new RuntimeException("Queue must hold a frame");
+        this.renderer = renderer;
+        this.waiting = new ArrayBlockingQueue<Frame>(queueSize + 1); // room for END
+        this.spare = new ArrayBlockingQueue<Frame>(queueSize + 1);
+        this.maxFrames = queueSize + 1; // one more for the frame being drawn
+        this.thread = new Thread(new Runnable() {
+            public void run() {
+                drawFrames();
+            }
+        }, "AsyncRenderer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // queues a snapshot of the round routes has just run
+    public void roundFinished(Routes routes, int round, double hazardRadius) {
+        if (failure != null) throw failure;
+        CompactFlowNetwork network = routes.getNetwork();
+
+        // reuse a drawn frame, or make a new one, or else drop the
+        // oldest waiting frame and take its place
+        Frame f = spare.poll();
+        if (f != null && f.flow.length != network.E()) f = null;
+        if (f == null && frames < maxFrames) {
+            f = new Frame(network.E());
+            frames++;
+        }
+        if (f == null) {
+            f = waiting.poll();
+            dropped++;
+            if (f == null || f.flow.length != network.E())
+                return; // every frame is in use; drop this round instead
+        }
+
+        f.network = network;
+        f.joints = routes.getJoints();
+        network.copyFlow(f.flow);
+        f.round = round;
+        f.hazardRadius = hazardRadius;
+        waiting.offer(f);
+    }
+
+    // number of frames dropped because drawing fell behind
+    public long dropped() {
+        return dropped;
+    }
+
+    // draws the frames still waiting, then stops the drawing thread
+    public void close() {
+        try {
+            waiting.put(END);
+            thread.join();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) throw failure;
+    }
+
+    // the drawing thread's loop
+    private void drawFrames() {
+        try {
+            while (true) {
+                Frame f = waiting.take();
+                if (f == END) return;
+                renderer.draw(f.network, f.joints, f.flow, f.round, f.hazardRadius);
+                spare.offer(f);
+            }
+        }
+        catch (InterruptedException ie) {
+            // stop drawing
+        }
+        catch (RuntimeException re) {
+            failure = re;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* Runs many independent simulations in parallel and summarizes how
+   many people died and escaped in each configuration.
+
+   Each line of the configuration file describes one configuration,
+
+       initPop awareness roadmap megatons trials [seed [seeding]]
+
+   with the same meaning as Simulation's arguments.  Trial t of a
+   configuration with a seed runs with the t-th seed drawn from it, so
+   a seeded batch prints the same results however many threads run it.  Every road map is
+   read once and shared, read-only, by all of the trials that use it;
+   trials run on a fixed pool of threads, one per core by default.
+   Given a CSV file, every round of every trial is also written to it
+   through a ResultsSink, numbered by trial in configuration order. */
+public class BatchSimulation {
+
+    // one line of the configuration file, and the outcome of its trials
+    private static class Config {
+        int initPop;
+        double awareness;
+        String filename;
+        double kinetic;
+        Routes.Seeding seeding; // how the population is spread over the roads
+        Termination term; // when this configuration's trials may stop
+        long[] seeds;     // seeds[t] = random seed of trial t
+        double[] dead;    // dead[t] = proportion of trial t's population killed
+        double[] escaped; // escaped[t] = proportion that escaped
+    }
+
+    // Usage Example:
+    // java BatchSimulation configs.txt [threads [rounds.csv]]
+    public static void main(String[] args) throws Exception {
+        int threads;
+        if (args.length > 1)
+            threads = Integer.parseInt(args[1]);
+        else
+            threads = Runtime.getRuntime().availableProcessors();
+
+        // where to write every trial's rounds, if anywhere
+        ResultsSink results = null;
+        if (args.length > 2)
+            results = new ResultsSink(args[2]);
+
+        // read the configurations
+        List<Config> configs = new ArrayList<Config>();
+        In in = new In(args[0]);
+        while (in.hasNextLine()) {
+            String line = in.readLine().trim();
+            if (line.isEmpty()) continue;
+            String[] fields = line.split("\\s+");
+            Config c = new Config();
+            c.initPop = Integer.parseInt(fields[0]);
+            c.awareness = Double.parseDouble(fields[1]);
+            c.filename = fields[2];
+            c.kinetic = Double.parseDouble(fields[3]);
+            int trials = Integer.parseInt(fields[4]);
+            SplittableRandom seeds;
+            if (fields.length > 5)
+                seeds = new SplittableRandom(Long.parseLong(fields[5]));
+            else
+                seeds = new SplittableRandom();
+            if (fields.length > 6)
+                c.seeding = Simulation.seeding(fields[6]);
+            else
+                c.seeding = Routes.Seeding.UNIFORM;
+            c.seeds = new long[trials];
+            for (int t = 0; t < trials; t++)
+                c.seeds[t] = seeds.nextLong();
+            c.dead = new double[trials];
+            c.escaped = new double[trials];
+            configs.add(c);
+        }
+
+        // read every map once; freezing it now makes it safe to share
+        Map<String, RoadMap> maps = new HashMap<String, RoadMap>();
+        for (Config c : configs) {
+            if (!maps.containsKey(c.filename)) {
+                RoadMap map = RoadMap.load(c.filename);
+                map.network();
+                maps.put(c.filename, map);
+            }
+        }
+
+        // the termination test depends only on the map and the bomb
+        for (Config c : configs)
+            c.term = Simulation.termination(maps.get(c.filename), c.kinetic);
+
+        // run every trial of every configuration
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> trials = new ArrayList<Future<?>>();
+        for (final Config c : configs) {
+            final RoadMap map = maps.get(c.filename);
+            for (int t = 0; t < c.dead.length; t++) {
+                final int trial = t;
+                final ResultsSink.Run run = (results == null) ? null
+                    : results.run(c.initPop, c.awareness, c.filename, c.kinetic, c.seeds[t]);
+                trials.add(pool.submit(new Runnable() {
+                    public void run() {
+                        Routes routes = Simulation.simulate(map, c.term, c.initPop, c.awareness,
+                                                             c.kinetic, c.seeds[trial], c.seeding,
+                                                             run);
+                        c.dead[trial] = routes.getDead() / routes.getPop();
+                        c.escaped[trial] = routes.getEscaped() / routes.getPop();
+                        if (run != null) run.close();
+                    }
+                }));
+            }
+        }
+        for (Future<?> f : trials)
+            f.get();
+        pool.shutdown();
+        if (results != null)
+            results.close();
+
+        // standardized output: sample mean, variance and standard
+        // deviation of the dead and escaped proportions
+        StdOut.println("initPop,awareness,roadmap,megatons,trials,seeding,"
+                       + "deadMean,deadVar,deadStdDev,escapedMean,escapedVar,escapedStdDev");
+        for (Config c : configs) {
+            StdOut.println(c.initPop + "," + c.awareness + "," + c.filename + ","
+                           + c.kinetic + "," + c.dead.length + ","
+                           + c.seeding.name().toLowerCase() + ","
+                           + mean(c.dead) + "," + var(c.dead) + "," + Math.sqrt(var(c.dead)) + ","
+                           + mean(c.escaped) + "," + var(c.escaped) + "," + Math.sqrt(var(c.escaped)));
+        }
+    }
+
+    // sample mean
+    private static double mean(double[] a) {
+        double sum = 0;
+        for (double x : a) sum += x;
+        return sum / a.length;
+    }
+
+    // sample variance
+    private static double var(double[] a) {
+        if (a.length < 2) return Double.NaN;
+        double mu = mean(a);
+        double sum = 0;
+        for (double x : a) sum += (x - mu)*(x - mu);
+        return sum / (a.length - 1);
+    }
+}
@@ -0,0 +1,360 @@
+/* CapacityAnalysis.java
+ * Compilation: javac CapacityAnalysis.java
+ * Execution: java CapacityAnalysis roadmap megatons [algorithm [full]]
+ *
+ * Dependencies:
+ * RoadMap.java, Routes.java, CompactFlowNetwork.java, MaxFlow.java,
+ * Dinic.java, Explosion.java, StdOut.java
+ *
+ * Description: CapacityAnalysis finds the most people per round that
+ * the roads of a map can carry out of the hazard region, and the roads
+ * that limit it.  It keeps a private copy of the map's network with
+ * the two spare vertices every road network has, a virtual source and
+ * a safe-zone sink, wired up: the source has an edge to every
+ * intersection and every intersection has an edge to the sink.  Each
+ * analysis sets the capacities of those edges to choose the sources and
+ * the safe zone, closes the roads at dead intersections, and runs a
+ * max-flow algorithm from source to sink.  Its value is the maximum
+ * throughput, and the roads across its min cut are the bottlenecks.
+ *
+ * The sources are either every open intersection inside the hazard
+ * limit or, given a running simulation, only those with people on the
+ * roads into them; the sink collects the intersections past the hazard
+ * limit.  The copy is built once, with the map's road numbers, so an
+ * analysis costs one max flow and never touches a simulation's flows.
+ *
+ * As the hazard radius grows, update() carries the last analysis over
+ * instead of starting again.  Only the intersections in the newly swept
+ * annulus die, so their roads are closed and the flow they carried is
+ * cancelled: an intersection left with more inflow than outflow sends
+ * the surplus back toward the source, and one left short draws more
+ * from its own source edge if it has one, or else passes the shortfall
+ * on toward the sink.  The result is a feasible flow; if it is worth
+ * as much as before it is still maximum, since closing roads never
+ * adds capacity, and otherwise Dinic's algorithm augments it from where
+ * it stands.  A whole run of rounds so costs little more than the first
+ * analysis.
+ */
+
+import java.util.Arrays;
+
+public class CapacityAnalysis {
+    private final String algorithm; // name of the max-flow algorithm, for MaxFlow.solve
+    private final CompactFlowNetwork roads; // the map's network, for its capacities
+    private final CompactFlowNetwork network; // roads plus source and sink edges
+    private final int n; // intersections
+    private final int E; // roads
+    private final int source; // virtual detonation source
+    private final int sink; // virtual safe-zone sink
+    private final double[] detDists;
+    private final double hazardLimit;
+    private final double unlimited; // capacity of source and sink edges
+    private final boolean[] isSource; // sources of the last analysis
+    private final int[] byDetDist; // intersections, nearest to the detonation first
+
+    private boolean analyzed; // has anything been analyzed?
+    private boolean byRadius; // were the sources chosen by radius alone?
+    private double hazardRadius; // hazard radius of the last analysis
+    private int swept; // byDetDist[0..swept) are dead in the last analysis
+    private double throughput;
+    private final double[] excess; // surplus (or shortfall) left by cancelled flow
+    private final int[] stack; // intersections with a surplus or shortfall
+    private final boolean[] onStack; // onStack[v] = is v on the stack?
+    private final boolean[] cut; // s side of the min cut, once found
+    private boolean hasCut; // is cut[] up to date?
+    private final Dinic.Workspace workspace = new Dinic.Workspace(); // for augmenting updates
+
+    // analyses of map, by push-relabel
+    public CapacityAnalysis(RoadMap map) {
+        this(map, "pushrelabel");
+    }
+
+    // analyses of map, by the named max-flow algorithm
+    public CapacityAnalysis(RoadMap map, String algorithm) {
+        this.algorithm = algorithm;
+        this.roads = map.network();
+        this.n = map.intersections();
+        this.E = roads.E();
+        this.source = n;
+        this.sink = n + 1;
+        this.detDists = map.detDists();
+        this.hazardLimit = Routes.hazardLimit(map);
+        this.isSource = new boolean[n];
+        this.byDetDist = map.byDetDist();
+        this.excess = new double[n + 2];
+        this.stack = new int[n + 2];
+        this.onStack = new boolean[n + 2];
+        this.cut = new boolean[n + 2];
+
+        // more than all of the roads together can carry
+        double total = 0;
+        for (int e = 0; e < E; e++) total += roads.capacity(e);
+        this.unlimited = total + 1;
+
+        // roads keep their numbers; source edge v is E + v, sink edge
+        // v is E + n + v, all closed until an analysis opens them
+        int[] from = new int[E + 2*n];
+        int[] to = new int[E + 2*n];
+        double[] capacity = new double[E + 2*n];
+        for (int e = 0; e < E; e++) {
+            from[e] = roads.from(e);
+            to[e] = roads.to(e);
+            capacity[e] = roads.capacity(e);
+        }
+        for (int v = 0; v < n; v++) {
+            from[E + v] = source;
+            to[E + v] = v;
+            from[E + n + v] = v;
+            to[E + n + v] = sink;
+        }
+        this.network = new CompactFlowNetwork(n + 2, E + 2*n, from, to, capacity);
+    }
+
+    /*
+     * maximum throughput from every open intersection inside the hazard
+     * limit to the safe zone, when every intersection within hazardRadius
+     * of the detonation is dead
+     */
+    public double analyze(double hazardRadius) {
+        for (int v = 0; v < n; v++)
+            isSource[v] = detDists[v] > hazardRadius && detDists[v] <= hazardLimit;
+        solve(hazardRadius);
+        byRadius = true;
+        return throughput;
+    }
+
+    /*
+     * same as analyze(hazardRadius), carrying the last analysis over if
+     * it chose its sources the same way at a radius no greater
+     */
+    public double update(double hazardRadius) {
+        if (!analyzed || !byRadius || hazardRadius < this.hazardRadius)
+            return analyze(hazardRadius);
+        this.hazardRadius = hazardRadius;
+        hasCut = false;
+        double before = throughput;
+
+        // close everything at the newly dead intersections
+        int top = 0;
+        for (; swept < n && detDists[byDetDist[swept]] <= hazardRadius; swept++) {
+            int x = byDetDist[swept];
+            isSource[x] = false;
+            for (int k = network.outBegin(x); k < network.outEnd(x); k++)
+                top = close(network.outEdge(k), top);
+            for (int k = network.inBegin(x); k < network.inEnd(x); k++)
+                top = close(network.inEdge(k), top);
+        }
+
+        // settle every surplus and shortfall, which may leave more behind
+        while (top > 0) {
+            int v = stack[--top];
+            onStack[v] = false;
+            while (excess[v] > 0) {
+                // hand the surplus back along an edge bringing flow in,
+                // the source edge first
+                int e = E + v;
+                for (int k = network.inBegin(v); !(network.flow(e) > 0) && k < network.inEnd(v); k++)
+                    e = network.inEdge(k);
+                if (!(network.flow(e) > 0)) break; // rounding error
+                double delta = Math.min(excess[v], network.flow(e));
+                cancel(e, delta);
+                excess[v] -= delta;
+                top = record(network.from(e), delta, top);
+            }
+            while (excess[v] < 0) {
+                // draw more from the source edge if it has room
+                int e = E + v;
+                double room = network.capacity(e) - network.flow(e);
+                if (room > 0) {
+                    double delta = Math.min(-excess[v], room);
+                    network.setFlow(e, network.flow(e) + delta);
+                    excess[v] += delta;
+                    continue;
+                }
+
+                // else pass the shortfall on along an edge carrying flow out
+                for (int k = network.outBegin(v); !(network.flow(e) > 0) && k < network.outEnd(v); k++)
+                    e = network.outEdge(k);
+                if (!(network.flow(e) > 0)) break; // rounding error
+                double delta = Math.min(-excess[v], network.flow(e));
+                cancel(e, delta);
+                excess[v] += delta;
+                top = record(network.to(e), -delta, top);
+            }
+            excess[v] = 0;
+        }
+
+        // the flow is still maximum unless some of it was lost
+        if (throughput < before)
+            throughput = new Dinic(network, source, sink, workspace).value();
+        return throughput;
+    }
+
+    // closes edge e, cancelling its flow; returns the new stack top
+    private int close(int e, int top) {
+        double f = network.flow(e);
+        network.setCapacity(e, 0.0);
+        if (!(f > 0)) return top;
+        network.setFlow(e, 0.0);
+        top = record(network.from(e), f, top);
+        return record(network.to(e), -f, top);
+    }
+
+    // takes delta off the flow on e, exactly to zero if that is all of it
+    private void cancel(int e, double delta) {
+        double f = network.flow(e);
+        network.setFlow(e, (delta >= f) ? 0.0 : f - delta);
+    }
+
+    /*
+     * adds delta to the excess of v, pushing v if it is not already on
+     * the stack, so the stack never holds more than each vertex once;
+     * the source needs nothing settled and the sink's excess is the
+     * throughput, and a dead intersection has no flow left to settle
+     */
+    private int record(int v, double delta, int top) {
+        if (v == source) return top;
+        if (v == sink) {
+            throughput += delta;
+            return top;
+        }
+        if (detDists[v] <= hazardRadius) return top;
+        if (!onStack[v]) {
+            onStack[v] = true;
+            stack[top++] = v;
+        }
+        excess[v] += delta;
+        return top;
+    }
+
+    /*
+     * maximum throughput from the open intersections that routes has
+     * people on the roads into, at its hazard radius; routes is only read
+     */
+    public double analyze(Routes routes) {
+        CompactFlowNetwork G = routes.getNetwork();
+        double hazardRadius = routes.getHazardRadius();
+        for (int v = 0; v < n; v++) {
+            isSource[v] = false;
+            if (detDists[v] <= hazardRadius || detDists[v] > hazardLimit) continue;
+            for (int k = G.inBegin(v); k < G.inEnd(v) && !isSource[v]; k++)
+                isSource[v] = G.flow(G.inEdge(k)) > 0;
+        }
+        return solve(hazardRadius);
+    }
+
+    // sets the capacities for isSource[] and hazardRadius, and solves
+    private double solve(double hazardRadius) {
+        for (int e = 0; e < E; e++) {
+            boolean open = detDists[roads.from(e)] > hazardRadius
+                        && detDists[roads.to(e)] > hazardRadius;
+            network.setCapacity(e, open ? roads.capacity(e) : 0.0);
+        }
+        for (int v = 0; v < n; v++) {
+            network.setCapacity(E + v, isSource[v] ? unlimited : 0.0);
+            network.setCapacity(E + n + v, (detDists[v] > hazardLimit) ? unlimited : 0.0);
+        }
+        for (int e = 0; e < network.E(); e++)
+            network.setFlow(e, 0.0);
+
+        throughput = MaxFlow.solve(algorithm, network, source, sink).value();
+        this.hazardRadius = hazardRadius;
+        for (swept = 0; swept < n && detDists[byDetDist[swept]] <= hazardRadius; swept++) { }
+        analyzed = true;
+        byRadius = false;
+        hasCut = false;
+        return throughput;
+    }
+
+    // maximum throughput found by the last analysis
+    public double throughput() {
+        return throughput;
+    }
+
+    // is intersection v on the source side of the last analysis' min cut?
+    public boolean inCut(int v) {
+        findCut();
+        return cut[v];
+    }
+
+    // roads across the last analysis' min cut, which are all full
+    public int[] bottlenecks() {
+        findCut();
+        int count = 0;
+        for (int e = 0; e < E; e++)
+            if (isBottleneck(e)) count++;
+        int[] cut = new int[count];
+        count = 0;
+        for (int e = 0; e < E; e++)
+            if (isBottleneck(e)) cut[count++] = e;
+        return cut;
+    }
+
+    private boolean isBottleneck(int e) {
+        return network.capacity(e) > 0
+            && cut[roads.from(e)] && !cut[roads.to(e)];
+    }
+
+    // marks the intersections reachable from the source in the residual
+    // network, unless the last analysis already has
+    private void findCut() {
+        if (!analyzed) throw new RuntimeException("Nothing analyzed yet");
+        if (hasCut) return;
+        Arrays.fill(cut, false);
+        int first = 0, last = 0;
+        stack[last++] = source;
+        cut[source] = true;
+        while (first < last) {
+            int v = stack[first++];
+            for (int k = network.outBegin(v); k < network.outEnd(v); k++) {
+                int e = network.outEdge(k);
+                int w = network.to(e);
+                if (!cut[w] && network.capacity(e) - network.flow(e) > 0) {
+                    cut[w] = true;
+                    stack[last++] = w;
+                }
+            }
+            for (int k = network.inBegin(v); k < network.inEnd(v); k++) {
+                int e = network.inEdge(k);
+                int w = network.from(e);
+                if (!cut[w] && network.flow(e) > 0) {
+                    cut[w] = true;
+                    stack[last++] = w;
+                }
+            }
+        }
+        hasCut = true;
+    }
+
+    // flow on road e in the last analysis
+    public double flow(int e) {
+        if (e < 0 || e >= E) throw new RuntimeException("No road " + e);
+        return network.flow(e);
+    }
+
+    // test client: maximum throughput as the hazard radius grows, round
+    // by round, as Simulation would grow it; updated from round to round
+    // unless "full" is given
+    public static void main(String[] args) {
+        RoadMap map = RoadMap.load(args[0]);
+        Explosion expl = new Explosion(Double.parseDouble(args[1]));
+        String algorithm = (args.length > 2) ? args[2] : "pushrelabel";
+        boolean full = args.length > 3 && args[3].equals("full");
+        CapacityAnalysis analysis = new CapacityAnalysis(map, algorithm);
+
+        StdOut.println("round,hazardRadius,throughput,bottlenecks,ms");
+        double total = 0;
+        for (int i = 0; i < 100; i++) {
+            double hazardRadius = expl.getRadius(i);
+            if (hazardRadius > analysis.hazardLimit) break;
+            long start = System.nanoTime();
+            double throughput = full ? analysis.analyze(hazardRadius)
+                                     : analysis.update(hazardRadius);
+            double ms = (System.nanoTime() - start)*1e-6;
+            total += ms;
+            StdOut.printf("%d,%f,%f,%d,%.1f\n", i, hazardRadius, throughput,
+                          analysis.bottlenecks().length, ms);
+        }
+        StdOut.printf("%.1f ms in all\n", total);
+    }
+}
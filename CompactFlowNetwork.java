@@ -0,0 +1,239 @@
+/*************************************************************************
+ *  Compilation:  javac CompactFlowNetwork.java
+ *  Execution:    java CompactFlowNetwork input.txt
+ *  Dependencies: FlowNetwork.java FlowEdge.java In.java StdOut.java
+ *
+ *  A capacitated flow network frozen into compressed sparse row form.
+ *  Edges are numbered 0 to E-1 and stored in parallel arrays; the
+ *  outgoing (and incoming) edges of each vertex occupy one contiguous
+ *  range of an index array, so walking them allocates nothing and
+ *  touches memory sequentially.
+ *
+ *  Iterate over the edges out of v with
+ *
+ *      for (int k = G.outBegin(v); k < G.outEnd(v); k++) {
+ *          int e = G.outEdge(k);
+ *          ...
+ *      }
+ *
+ *************************************************************************/
+
+public class CompactFlowNetwork {
+    private final int V;
+    private final int E;
+    private final int[] from;         // from[e] = tail of edge e
+    private final int[] to;           // to[e] = head of edge e
+    private final double[] capacity;  // capacity[e] = capacity of edge e
+    private double[] flow;            // flow[e] = flow on edge e
+    private final int[] outStart;     // edges out of v are outEdge[outStart[v]..outStart[v+1])
+    private final int[] outEdge;
+    private final int[] inStart;      // edges into v are inEdge[inStart[v]..inStart[v+1])
+    private final int[] inEdge;
+
+    // network with V vertices and edges e = from[e]->to[e], 0 <= e < E,
+    // with zero flow; the arrays become part of the network.  The edges
+    // into a vertex are kept in order of edge id, and the edges out of
+    // it in order of head, then edge id, the order in which a FlowNetwork
+    // copy lists them
+    public CompactFlowNetwork(int V, int E, int[] from, int[] to, double[] capacity) {
+        this.V = V;
+        this.E = E;
+        this.from = from;
+        this.to = to;
+        this.capacity = capacity;
+        this.flow = new double[E];
+        for (int e = 0; e < E; e++) {
+            if (capacity[e] < 0) throw new RuntimeException("Negative edge capacity");
+        }
+
+        // counting sort of edge ids by tail and by head
+        outStart = new int[V+1];
+        inStart = new int[V+1];
+        for (int e = 0; e < E; e++) {
+            outStart[from[e]+1]++;
+            inStart[to[e]+1]++;
+        }
+        for (int v = 0; v < V; v++) {
+            outStart[v+1] += outStart[v];
+            inStart[v+1] += inStart[v];
+        }
+        outEdge = new int[E];
+        inEdge = new int[E];
+        int[] nextOut = new int[V];
+        int[] nextIn = new int[V];
+        for (int e = 0; e < E; e++)
+            inEdge[inStart[to[e]] + nextIn[to[e]]++] = e;
+        for (int k = 0; k < E; k++) {
+            int e = inEdge[k];
+            outEdge[outStart[from[e]] + nextOut[from[e]]++] = e;
+        }
+    }
+
+    // network with zero flow whose edge ranges have already been built,
+    // e.g. by an earlier network that was saved to a file
+    public CompactFlowNetwork(int V, int E, int[] from, int[] to, double[] capacity,
+                              int[] outStart, int[] outEdge, int[] inStart, int[] inEdge) {
+        if (outStart.length != V+1 || inStart.length != V+1
+            || outStart[V] != E || inStart[V] != E)
+            throw new RuntimeException("Edge ranges do not match network");
+        this.V = V;
+        this.E = E;
+        this.from = from;
+        this.to = to;
+        this.capacity = capacity;
+        this.flow = new double[E];
+        this.outStart = outStart;
+        this.outEdge = outEdge;
+        this.inStart = inStart;
+        this.inEdge = inEdge;
+    }
+
+    // frozen copy of G with the same flows; edges are numbered by head,
+    // in the order of G.incoming(v)
+    public CompactFlowNetwork(FlowNetwork G) {
+        this(G.V(), edges(G));
+    }
+
+    private CompactFlowNetwork(int V, FlowEdge[] edges) {
+        this(V, edges.length, tails(edges), heads(edges), capacities(edges));
+        for (int e = 0; e < E; e++)
+            flow[e] = edges[e].flow();
+    }
+
+    // network sharing that network's vertices and edges, with its own
+    // copy of their capacities and flow of zero on all edges
+    public CompactFlowNetwork(CompactFlowNetwork that) {
+        this.V = that.V;
+        this.E = that.E;
+        this.from = that.from;
+        this.to = that.to;
+        this.capacity = that.capacity.clone();
+        this.flow = new double[E];
+        this.outStart = that.outStart;
+        this.outEdge = that.outEdge;
+        this.inStart = that.inStart;
+        this.inEdge = that.inEdge;
+    }
+
+    // edges of G numbered by head, in the order of G.incoming(v)
+    public static FlowEdge[] edges(FlowNetwork G) {
+        int E = 0;
+        for (int v = 0; v < G.V(); v++)
+            for (FlowEdge fe : G.incoming(v))
+                E++;
+        FlowEdge[] edges = new FlowEdge[E];
+        int e = 0;
+        for (int v = 0; v < G.V(); v++)
+            for (FlowEdge fe : G.incoming(v))
+                edges[e++] = fe;
+        return edges;
+    }
+
+    private static int[] tails(FlowEdge[] edges) {
+        int[] a = new int[edges.length];
+        for (int e = 0; e < edges.length; e++) a[e] = edges[e].from();
+        return a;
+    }
+
+    private static int[] heads(FlowEdge[] edges) {
+        int[] a = new int[edges.length];
+        for (int e = 0; e < edges.length; e++) a[e] = edges[e].to();
+        return a;
+    }
+
+    private static double[] capacities(FlowEdge[] edges) {
+        double[] a = new double[edges.length];
+        for (int e = 0; e < edges.length; e++) a[e] = edges[e].capacity();
+        return a;
+    }
+
+    // number of vertices and edges
+    public int V() { return V; }
+    public int E() { return E; }
+
+    // accessor methods for edge e
+    public int from(int e)            { return from[e];     }
+    public int to(int e)              { return to[e];       }
+    public double capacity(int e)     { return capacity[e]; }
+    public double flow(int e)         { return flow[e];     }
+
+    public int other(int e, int vertex) {
+        if      (vertex == from[e]) return to[e];
+        else if (vertex == to[e])   return from[e];
+        else throw new RuntimeException("Illegal endpoint");
+    }
+
+    public double residualCapacityTo(int e, int vertex) {
+        if      (vertex == from[e]) return flow[e];
+        else if (vertex == to[e])   return capacity[e] - flow[e];
+        else throw new RuntimeException("Illegal endpoint");
+    }
+
+    public void addResidualFlowTo(int e, int vertex, double delta) {
+        if      (vertex == from[e]) flow[e] -= delta;
+        else if (vertex == to[e])   flow[e] += delta;
+        else throw new RuntimeException("Illegal endpoint");
+    }
+
+    // changes the capacity of edge e in this network only
+    public void setCapacity(int e, double newCapacity) {
+        if (newCapacity < 0) throw new RuntimeException("Negative edge capacity");
+        capacity[e] = newCapacity;
+    }
+
+    public void setFlow(int e, double newFlow) { flow[e] = newFlow;  }
+    public void addFlow(int e, double added)   { flow[e] += added;   }
+
+    // installs next[] as the flow on every edge and returns the old flows,
+    // so that a caller can double-buffer flows without allocating
+    public double[] swapFlow(double[] next) {
+        if (next.length != E) throw new RuntimeException("Wrong number of flows");
+        double[] old = flow;
+        flow = next;
+        return old;
+    }
+
+    // copies the flow on every edge into into[], which it returns
+    public double[] copyFlow(double[] into) {
+        if (into.length != E) throw new RuntimeException("Wrong number of flows");
+        System.arraycopy(flow, 0, into, 0, E);
+        return into;
+    }
+
+    // edges out of v are outEdge(k) for outBegin(v) <= k < outEnd(v)
+    public int outBegin(int v)  { return outStart[v];   }
+    public int outEnd(int v)    { return outStart[v+1]; }
+    public int outEdge(int k)   { return outEdge[k];    }
+    public int outDegree(int v) { return outStart[v+1] - outStart[v]; }
+
+    // edges into v are inEdge(k) for inBegin(v) <= k < inEnd(v)
+    public int inBegin(int v)   { return inStart[v];   }
+    public int inEnd(int v)     { return inStart[v+1]; }
+    public int inEdge(int k)    { return inEdge[k];    }
+    public int inDegree(int v)  { return inStart[v+1] - inStart[v]; }
+
+
+    // string representation of the network
+    public String toString() {
+        String NEWLINE = System.getProperty("line.separator");
+        StringBuilder s = new StringBuilder();
+        s.append(V + " " + E + NEWLINE);
+        for (int v = 0; v < V; v++) {
+            s.append(v + ":  ");
+            for (int k = outStart[v]; k < outStart[v+1]; k++) {
+                int e = outEdge[k];
+                s.append(from[e] + "->" + to[e] + " " + flow[e] + "/" + capacity[e] + "  ");
+            }
+            s.append(NEWLINE);
+        }
+        return s.toString();
+    }
+
+    // test client
+    public static void main(String[] args) {
+        In in = new In(args[0]);
+        CompactFlowNetwork G = new CompactFlowNetwork(new FlowNetwork(in));
+        StdOut.println(G);
+    }
+
+}
@@ -0,0 +1,249 @@
+/*************************************************************************
+ *  Compilation:  javac Dinic.java
+ *  Execution:    java Dinic V E [seed]
+ *  Dependencies: MaxFlow.java FlowNetwork.java FlowEdge.java
+ *                CompactFlowNetwork.java FordFulkerson.java StdOut.java
+ *
+ *  Dinic's algorithm for computing a max flow and a min cut.
+ *
+ *  Each phase labels every vertex with its residual distance from s,
+ *  by breadth-first search, and then finds a blocking flow in the
+ *  level graph: the residual arcs that go from one level to the next.
+ *  Paths are found by depth-first search, kept on an explicit stack,
+ *  with each vertex remembering the next of its arcs to try, so an arc
+ *  is passed over at most once a phase, and a vertex found to lead
+ *  nowhere is dropped from its level.  There are at most V phases, and
+ *  on unit-capacity networks, such as the grids Maps draws, far fewer.
+ *
+ *  Runs on a CompactFlowNetwork, starting from the flow already on it.
+ *  Its levels, arc positions, queue and path live in a Workspace, which
+ *  is allocated once and can be handed from one run to the next, so a
+ *  run allocates nothing but its min cut.  A FlowNetwork is solved on a
+ *  compact copy, whose flows are then copied back.
+ *
+ *************************************************************************/
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public class Dinic implements MaxFlow {
+    private boolean[] marked;     // marked[v] = true iff v is on the s side of the min cut
+    private double value;         // current value of max flow
+
+    // arrays a run works in, grown to fit the largest network seen
+    public static class Workspace {
+        private int[] level = new int[0];      // level[v] = residual distance from s, or -1
+        private int[] current = new int[0];    // current[v] = next of v's arcs to try
+        private int[] queue = new int[0];      // breadth-first search queue
+        private int[] pathEdge = new int[0];   // edges of the path being searched, ~e if backward
+        private int[] pathVertex = new int[0]; // pathVertex[i] = tail of pathEdge[i]
+
+        private void ensure(int V) {
+            if (level.length >= V) return;
+            level = new int[V];
+            current = new int[V];
+            queue = new int[V];
+            pathEdge = new int[V];
+            pathVertex = new int[V];
+        }
+    }
+
+    // max flow in flow network G from s to t
+    public Dinic(FlowNetwork G, int s, int t) {
+        CompactFlowNetwork C = new CompactFlowNetwork(G);
+        solve(C, s, t, new Workspace());
+        FlowEdge[] edges = CompactFlowNetwork.edges(G);
+        for (int e = 0; e < edges.length; e++)
+            edges[e].setFlow(C.flow(e));
+    }
+
+    // max flow in compact flow network G from s to t, starting from the
+    // flow already on G, which must be feasible
+    public Dinic(CompactFlowNetwork G, int s, int t) {
+        this(G, s, t, new Workspace());
+    }
+
+    // same as above, working in ws, which may not be in use by another run
+    public Dinic(CompactFlowNetwork G, int s, int t, Workspace ws) {
+        solve(G, s, t, ws);
+    }
+
+    // return value of max flow
+    public double value() {
+        return value;
+    }
+
+    // is v in the s side of the min cut?
+    public boolean inCut(int v) {
+        return marked[v];
+    }
+
+    private void solve(CompactFlowNetwork G, int s, int t, Workspace ws) {
+        if (s == t) {
+            throw new RuntimeException("Source equals sink");
+        }
+        ws.ensure(G.V());
+        value = 0.0;
+        for (int k = G.inBegin(t); k < G.inEnd(t); k++)
+            value += G.flow(G.inEdge(k));
+        for (int k = G.outBegin(t); k < G.outEnd(t); k++)
+            value -= G.flow(G.outEdge(k));
+
+        while (levels(G, s, t, ws)) {
+            Arrays.fill(ws.current, 0, G.V(), 0);
+            value += blockingFlow(G, s, t, ws);
+        }
+
+        // the last search reached everything reachable from s
+        marked = new boolean[G.V()];
+        for (int v = 0; v < G.V(); v++)
+            marked[v] = ws.level[v] >= 0;
+    }
+
+    /*
+     * labels the vertices with their residual distance from s, up to
+     * that of t; returns true if t is reachable
+     */
+    private static boolean levels(CompactFlowNetwork G, int s, int t, Workspace ws) {
+        int[] level = ws.level;
+        int[] queue = ws.queue;
+        Arrays.fill(level, 0, G.V(), -1);
+        int first = 0, last = 0;
+        level[s] = 0;
+        queue[last++] = s;
+        while (first < last) {
+            int v = queue[first++];
+            if (level[t] >= 0 && level[v] >= level[t]) break; // nothing farther is used
+            int h = level[v] + 1;
+            for (int k = G.outBegin(v); k < G.outEnd(v); k++) {
+                int e = G.outEdge(k);
+                int w = G.to(e);
+                if (level[w] < 0 && G.capacity(e) - G.flow(e) > 0) {
+                    level[w] = h;
+                    queue[last++] = w;
+                }
+            }
+            for (int k = G.inBegin(v); k < G.inEnd(v); k++) {
+                int e = G.inEdge(k);
+                int w = G.from(e);
+                if (level[w] < 0 && G.flow(e) > 0) {
+                    level[w] = h;
+                    queue[last++] = w;
+                }
+            }
+        }
+        return level[t] >= 0;
+    }
+
+    /*
+     * saturates every s-t path in the level graph; returns the flow added.
+     * The arcs of v are the edges out of v, forward, then the edges into
+     * v, backward, and current[v] never moves past one still usable.
+     */
+    private static double blockingFlow(CompactFlowNetwork G, int s, int t, Workspace ws) {
+        int[] level = ws.level;
+        int[] current = ws.current;
+        int[] pathEdge = ws.pathEdge;
+        int[] pathVertex = ws.pathVertex;
+        double added = 0.0;
+        int depth = 0;
+        int v = s;
+        while (true) {
+            if (v == t) {
+                // augment by the path's bottleneck, then back up to the
+                // tail of the first arc that fills
+                double bottle = Double.POSITIVE_INFINITY;
+                for (int i = 0; i < depth; i++)
+                    bottle = Math.min(bottle, residual(G, pathEdge[i]));
+                int back = -1;
+                for (int i = 0; i < depth; i++) {
+                    int e = pathEdge[i];
+                    if (residual(G, e) == bottle) {
+                        // saturate exactly
+                        if (e >= 0) G.setFlow(e, G.capacity(e));
+                        else        G.setFlow(~e, 0.0);
+                        if (back < 0) back = i;
+                    }
+                    else if (e >= 0) G.setFlow(e, G.flow(e) + bottle);
+                    else             G.setFlow(~e, G.flow(~e) - bottle);
+                }
+                added += bottle;
+                depth = back;
+                v = pathVertex[depth];
+                continue;
+            }
+
+            // advance along the next usable arc of v, if any
+            int outs = G.outDegree(v);
+            int deg = outs + G.inDegree(v);
+            int next = -1;
+            int k = current[v];
+            for (; k < deg; k++) {
+                if (k < outs) {
+                    int e = G.outEdge(G.outBegin(v) + k);
+                    int w = G.to(e);
+                    if (level[w] == level[v] + 1 && G.capacity(e) - G.flow(e) > 0) {
+                        pathEdge[depth] = e;
+                        next = w;
+                        break;
+                    }
+                }
+                else {
+                    int e = G.inEdge(G.inBegin(v) + k - outs);
+                    int w = G.from(e);
+                    if (level[w] == level[v] + 1 && G.flow(e) > 0) {
+                        pathEdge[depth] = ~e;
+                        next = w;
+                        break;
+                    }
+                }
+            }
+            current[v] = k;
+            if (next >= 0) {
+                pathVertex[depth++] = v;
+                v = next;
+                continue;
+            }
+
+            // v leads nowhere: drop it and retreat
+            level[v] = -1;
+            if (depth == 0) return added;
+            v = pathVertex[--depth];
+            current[v]++;
+        }
+    }
+
+    // residual capacity of a path arc: edge e forward, or ~e backward
+    private static double residual(CompactFlowNetwork G, int e) {
+        if (e >= 0) return G.capacity(e) - G.flow(e);
+        return G.flow(~e);
+    }
+
+    // test client that creates a random network, solves it with both
+    // Ford-Fulkerson and Dinic, and compares the results
+    public static void main(String[] args) {
+        int V = Integer.parseInt(args[0]);
+        int E = Integer.parseInt(args[1]);
+        int s = 0, t = V-1;
+        SplittableRandom random;
+        if (args.length > 2)
+            random = new SplittableRandom(Long.parseLong(args[2]));
+        else
+            random = new SplittableRandom();
+        FlowNetwork G = new FlowNetwork(V, E, random);
+        CompactFlowNetwork C = new CompactFlowNetwork(G);
+
+        long start = System.nanoTime();
+        MaxFlow ff = new FordFulkerson(new CompactFlowNetwork(C), s, t);
+        long middle = System.nanoTime();
+        MaxFlow dinic = new Dinic(new CompactFlowNetwork(C), s, t);
+        long end = System.nanoTime();
+
+        int differ = 0;
+        for (int v = 0; v < V; v++)
+            if (ff.inCut(v) != dinic.inCut(v)) differ++;
+        StdOut.printf("Ford-Fulkerson %f in %.1f ms, Dinic %f in %.1f ms\n",
+                      ff.value(), (middle - start)*1e-6, dinic.value(), (end - middle)*1e-6);
+        StdOut.println("Min cuts differ at " + differ + " vertices");
+    }
+}
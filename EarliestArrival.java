@@ -0,0 +1,478 @@
+/* EarliestArrival.java
+ * Compilation: javac EarliestArrival.java
+ * Execution: java EarliestArrival initPop awareness roadmap megatons seed [rounds [speed]]
+ *
+ * Dependencies:
+ * RoadMap.java, CompactFlowNetwork.java, Explosion.java, Routes.java,
+ * Simulation.java, RoundObserver.java, StdOut.java
+ *
+ * Description: EarliestArrival finds the most people that could escape
+ * by each round, however they choose their roads, as the blast grows:
+ * an upper bound on what any simulation of the same start can reach.
+ * It is a maximum flow in the time-expanded road network, with a copy
+ * of every intersection for every round (layer) 0..rounds,
+ *
+ *     (u, t) -> (v, t + travel(e))   road e = u -> v, its capacity a round
+ *     (v, t) -> (v, t + 1)           waiting at v, unlimited
+ *     queue(e) -> (v, t)             the people first on road e = u -> v,
+ *                                    reaching v at its capacity a round
+ *
+ * where a road takes travel(e) = ceil(length(e) / speed) rounds, at
+ * least one, and (v, t) is gone once v is dead in round t, so the blast
+ * sweeps away every road that leads into it.  The people on road e at
+ * the start are the supply of queue(e); every copy of an intersection
+ * past the hazard limit drains into the sink.  Letting people wait at
+ * intersections, and choose every road, only loosens the bound.
+ *
+ * The layers are never built: the arcs of (v, t) are those of v in the
+ * map's network, and flows are kept in one array per kind of arc,
+ * indexed by road (or intersection) and round.  The flow is found one
+ * round at a time, as in Minieka's construction: a max flow with the
+ * sinks of rounds 0..h is augmented to one with the sinks of round h+1,
+ * by blocking flows in level graphs as in Dinic's algorithm.  No
+ * augmenting path ever takes people back from an earlier round's sink,
+ * so each round's escapes are as many as any flow could have by then.
+ *
+ * While the flow for round h is found, (v, t) is left out if v is more
+ * than h - t rounds of driving from safety, blast or no blast.  Every
+ * arc leads forward in time, so the flow so far runs along paths to the
+ * sinks of earlier rounds, through no such node; and since a node with
+ * no flow through it has no backward arcs, nothing reached from such a
+ * node gets any nearer, so none of them can be on a path to round h.
+ */
+
+import java.util.Arrays;
+
+public class EarliestArrival {
+    private static final double UNLIMITED = Double.POSITIVE_INFINITY;
+
+    private final CompactFlowNetwork G; // the map's roads
+    private final int V; // intersections
+    private final int E; // roads
+    private final int T; // last round
+    private final int[] travel; // travel[e] = rounds to drive road e
+    private final int[] die; // die[v] = first round at which v is dead
+    private final boolean[] safe; // safe[v] = is v past the hazard limit?
+    private final int[] dist; // dist[v] = fewest rounds from v to safety, at most T + 1
+    private final double[] supply; // people on each road at the start
+
+    // node numbers: (v, t) is t*V + v, then one queue per road, then
+    // the source and the sink
+    private final int queues;
+    private final int source;
+    private final int sink;
+
+    // flows: road[t*E + e] on road e leaving in round t, hold[t*V + v]
+    // waiting at v from round t to t+1, enter[t*E + e] from queue e to
+    // the head of e in round t, and out[e] from the source to queue e
+    private final double[] road;
+    private final double[] hold;
+    private final double[] enter;
+    private final double[] out;
+    private final int[] firstOpen; // no round before firstOpen[e] has room to enter from queue e
+    private final int[] waiting; // waiting[0..queued) = roads whose queues still have people
+    private int queued;
+    private final double[] escaped; // escaped[t] = escapes by round t
+
+    // level graph and search state, reused by every phase
+    private final int[] level;
+    private final int[] current; // next arc of each node to try
+    private final int[] queue;
+    private final int[] pathNode; // nodes of the path being searched
+    private final int[] pathArc; // pathArc[i] = arc taken out of pathNode[i]
+    private int searched; // queue[0..searched) = nodes the last search labelled
+    private int horizon; // layers 0..horizon are in the network
+
+    // most escapes by each round up to rounds, with supply[e] people on
+    // road e at the start, when every road takes one round, as in Routes
+    public EarliestArrival(RoadMap map, double[] supply, double kinetic, int rounds) {
+        this(map, supply, kinetic, rounds, UNLIMITED);
+    }
+
+    // same as above, driving speed distance a round
+    public EarliestArrival(RoadMap map, double[] supply, double kinetic, int rounds,
+                           double speed) {
+        if (rounds < 0) throw new RuntimeException("Negative rounds " + rounds);
+        if (!(speed > 0)) throw new RuntimeException("Speed must be positive, not " + speed);
+        this.G = map.network();
+        this.V = map.intersections();
+        this.E = G.E();
+        this.T = rounds;
+        if (supply.length != E)
+            throw new RuntimeException("Supply for " + supply.length + " roads, not " + E);
+        this.supply = supply;
+
+        travel = new int[E];
+        for (int e = 0; e < E; e++)
+            travel[e] = (int) Math.max(1, Math.min(T + 1, Math.ceil(map.length(e) / speed)));
+
+        Explosion expl = new Explosion(kinetic);
+        double[] detDists = map.detDists();
+        double hazardLimit = Routes.hazardLimit(map);
+        die = new int[V];
+        safe = new boolean[V];
+        for (int v = 0; v < V; v++) {
+            die[v] = expl.getTime(detDists[v]);
+            safe[v] = detDists[v] > hazardLimit;
+        }
+        dist = distances();
+
+        queues = (T + 1) * V;
+        source = queues + E;
+        sink = source + 1;
+        road = new double[(T + 1) * E];
+        hold = new double[T * V];
+        enter = new double[(T + 1) * E];
+        out = new double[E];
+        firstOpen = new int[E];
+        waiting = new int[E];
+        for (int e = 0; e < E; e++)
+            if (supply[e] > 0) waiting[queued++] = e;
+        escaped = new double[T + 1];
+
+        level = new int[sink + 1];
+        current = new int[sink + 1];
+        queue = new int[sink + 1];
+        pathNode = new int[sink + 1];
+        pathArc = new int[sink + 1];
+        Arrays.fill(level, -1);
+
+        // add the layers one at a time, each time augmenting to a max flow
+        for (horizon = 0; horizon <= T; horizon++) {
+            while (levels())
+                escaped[horizon] += blockingFlow();
+            if (horizon < T) escaped[horizon + 1] = escaped[horizon];
+        }
+        horizon = T;
+    }
+
+    /*
+     * fewest rounds from each intersection to safety, by Dijkstra's
+     * algorithm backward from the safe intersections, with a bucket of
+     * intersections for each round up to T; farther ones are left at T + 1
+     */
+    private int[] distances() {
+        int[] dist = new int[V];
+        int[] bucket = new int[T + 2]; // bucket[d] = last entry of round d, or -1
+        int[] entryOf = new int[V + E]; // intersection of each entry
+        int[] below = new int[V + E]; // entry under each in its bucket
+        int entries = 0;
+        Arrays.fill(bucket, -1);
+        for (int v = 0; v < V; v++) {
+            dist[v] = T + 1;
+            if (safe[v]) {
+                dist[v] = 0;
+                entryOf[entries] = v;
+                below[entries] = bucket[0];
+                bucket[0] = entries++;
+            }
+        }
+        for (int d = 0; d <= T; d++) {
+            for (int i = bucket[d]; i != -1; i = below[i]) {
+                int w = entryOf[i];
+                if (dist[w] != d) continue; // stale entry
+                for (int k = G.inBegin(w); k < G.inEnd(w); k++) {
+                    int e = G.inEdge(k);
+                    int u = G.from(e);
+                    int du = d + travel[e];
+                    if (du >= dist[u] || du > T) continue;
+                    dist[u] = du;
+                    entryOf[entries] = u;
+                    below[entries] = bucket[du];
+                    bucket[du] = entries++;
+                }
+            }
+        }
+        return dist;
+    }
+
+    // most people that could have escaped by round t
+    public double escaped(int t) {
+        if (t < 0) return 0.0;
+        return escaped[Math.min(t, T)];
+    }
+
+    // last round considered
+    public int rounds() {
+        return T;
+    }
+
+    // rounds it takes to drive road e
+    public int travelTime(int e) {
+        return travel[e];
+    }
+
+    // is (v, t) in the network, alive and near enough to safety, while
+    // the flow for the horizon is found?
+    private boolean present(int v, int t) {
+        return t < die[v] && t + dist[v] <= horizon;
+    }
+
+    /*
+     * arcs of each node, for 0 <= k < degree(x):
+     *     source    queue of the k-th road in waiting[]
+     *     queue e   head of e in round k, for k <= horizon
+     *     (v, t)    if v is safe, the sink; else the roads out of v, then
+     *               waiting, then backward along the roads into v, the
+     *               queues of those roads and waiting
+     * An arc that leaves the network, for a node that is not present(),
+     * has no head and no residual capacity.
+     */
+    private int degree(int x, int v) {
+        if (x == source) return queued;
+        if (x == sink) return 0;
+        if (x >= queues) return horizon + 1;
+        if (safe[v]) return 1;
+        return G.outDegree(v) + 1 + 2*G.inDegree(v) + 1;
+    }
+
+    /*
+     * head of arc k of x, or -1 if it has left the network; x is (v, t)
+     * if it is an intersection's copy, and v and t are ignored otherwise
+     */
+    private int head(int x, int v, int t, int k) {
+        if (x == source) return queues + waiting[k];
+        if (x >= queues) {
+            int w = G.to(x - queues);
+            return present(w, k) ? k*V + w : -1;
+        }
+        if (safe[v]) return sink;
+        int outs = G.outDegree(v);
+        int ins = G.inDegree(v);
+        if (k < outs) {
+            int e = G.outEdge(G.outBegin(v) + k);
+            int w = G.to(e);
+            int arrive = t + travel[e];
+            return present(w, arrive) ? arrive*V + w : -1;
+        }
+        k -= outs;
+        if (k == 0) return present(v, t + 1) ? x + V : -1;
+        k--;
+        if (k < ins) {
+            int e = G.inEdge(G.inBegin(v) + k);
+            int leave = t - travel[e];
+            return (leave >= 0) ? leave*V + G.from(e) : -1;
+        }
+        k -= ins;
+        if (k < ins) return queues + G.inEdge(G.inBegin(v) + k);
+        return (t > 0) ? x - V : -1;
+    }
+
+    // residual capacity of arc k of x, whose head is in the network
+    private double residual(int x, int v, int t, int k) {
+        if (x == source) return supply[waiting[k]] - out[waiting[k]];
+        if (x >= queues) {
+            int e = x - queues;
+            return G.capacity(e) - enter[k*E + e];
+        }
+        if (safe[v]) return UNLIMITED;
+        int outs = G.outDegree(v);
+        int ins = G.inDegree(v);
+        if (k < outs) {
+            int e = G.outEdge(G.outBegin(v) + k);
+            return G.capacity(e) - road[t*E + e];
+        }
+        k -= outs;
+        if (k == 0) return UNLIMITED;
+        k--;
+        if (k < ins) {
+            int e = G.inEdge(G.inBegin(v) + k);
+            return road[(t - travel[e])*E + e];
+        }
+        k -= ins;
+        if (k < ins) return enter[t*E + G.inEdge(G.inBegin(v) + k)];
+        return hold[(t - 1)*V + v];
+    }
+
+    // pushes delta along arc k of x, filling it exactly if full is set
+    private void push(int x, int v, int t, int k, double delta, boolean full) {
+        if (x == source) {
+            int e = waiting[k];
+            out[e] = full ? supply[e] : out[e] + delta;
+            return;
+        }
+        if (x >= queues) {
+            int e = x - queues;
+            int i = k*E + e;
+            enter[i] = full ? G.capacity(e) : enter[i] + delta;
+            return;
+        }
+        if (safe[v]) return;
+        int outs = G.outDegree(v);
+        int ins = G.inDegree(v);
+        if (k < outs) {
+            int e = G.outEdge(G.outBegin(v) + k);
+            int i = t*E + e;
+            road[i] = full ? G.capacity(e) : road[i] + delta;
+            return;
+        }
+        k -= outs;
+        if (k == 0) {
+            hold[t*V + v] += delta;
+            return;
+        }
+        k--;
+        if (k < ins) {
+            int e = G.inEdge(G.inBegin(v) + k);
+            int i = (t - travel[e])*E + e;
+            road[i] = full ? 0.0 : road[i] - delta;
+            return;
+        }
+        k -= ins;
+        if (k < ins) {
+            int e = G.inEdge(G.inBegin(v) + k);
+            int i = t*E + e;
+            enter[i] = full ? 0.0 : enter[i] - delta;
+            if (t < firstOpen[e]) firstOpen[e] = t;
+            return;
+        }
+        int i = (t - 1)*V + v;
+        hold[i] = full ? 0.0 : hold[i] - delta;
+    }
+
+    // first round in which queue e has room to enter the head of e
+    private int firstOpen(int e) {
+        int k = firstOpen[e];
+        while (k <= horizon && !(G.capacity(e) - enter[k*E + e] > 0)) k++;
+        firstOpen[e] = k;
+        return k;
+    }
+
+    /*
+     * labels the nodes with their residual distance from the source, up
+     * to that of the sink; returns true if the sink is reachable.  A
+     * queue is only followed into the first round it has room in, unless
+     * its road leads to safety, since waiting at the head of its road
+     * reaches every later round as well; the labels are then not all
+     * distances, but every path to the sink is still found.
+     */
+    private boolean levels() {
+        // only the nodes the last search labelled need clearing
+        for (int i = 0; i < searched; i++) {
+            level[queue[i]] = -1;
+            current[queue[i]] = 0;
+        }
+
+        // a queue, once empty, stays empty: no path leads into the source
+        int kept = 0;
+        for (int i = 0; i < queued; i++)
+            if (supply[waiting[i]] - out[waiting[i]] > 0) waiting[kept++] = waiting[i];
+        queued = kept;
+
+        int first = 0, last = 0;
+        level[source] = 0;
+        queue[last++] = source;
+        while (first < last) {
+            int x = queue[first++];
+            if (level[sink] >= 0 && level[x] >= level[sink]) break; // nothing farther is used
+            int v = x % V;
+            int t = x / V;
+            int deg = degree(x, v);
+            int k = 0;
+            if (x >= queues && x < source) {
+                int e = x - queues;
+                k = firstOpen(e);
+                if (!safe[G.to(e)]) deg = Math.min(deg, k + 1);
+            }
+            for (; k < deg; k++) {
+                int w = head(x, v, t, k);
+                if (w < 0 || level[w] >= 0 || !(residual(x, v, t, k) > 0)) continue;
+                level[w] = level[x] + 1;
+                queue[last++] = w;
+            }
+        }
+        searched = last;
+        return level[sink] >= 0;
+    }
+
+    // saturates every path in the level graph; returns the flow added
+    private double blockingFlow() {
+        double added = 0.0;
+        int depth = 0;
+        int x = source;
+        while (true) {
+            if (x == sink) {
+                // augment by the path's bottleneck, then back up to the
+                // tail of the first arc that fills
+                double bottle = UNLIMITED;
+                for (int i = 0; i < depth; i++) {
+                    int y = pathNode[i];
+                    bottle = Math.min(bottle, residual(y, y % V, y / V, pathArc[i]));
+                }
+                int back = -1;
+                for (int i = 0; i < depth; i++) {
+                    int y = pathNode[i];
+                    boolean full = residual(y, y % V, y / V, pathArc[i]) == bottle;
+                    push(y, y % V, y / V, pathArc[i], bottle, full);
+                    if (full && back < 0) back = i;
+                }
+                added += bottle;
+                depth = back;
+                x = pathNode[depth];
+                continue;
+            }
+
+            // advance along the next usable arc of x, if any
+            int v = x % V;
+            int t = x / V;
+            int deg = degree(x, v);
+            int k = current[x];
+            if (x >= queues && x < source) k = Math.max(k, firstOpen[x - queues]);
+            int next = -1;
+            for (; k < deg; k++) {
+                int w = head(x, v, t, k);
+                if (w >= 0 && level[w] == level[x] + 1 && residual(x, v, t, k) > 0) {
+                    next = w;
+                    break;
+                }
+            }
+            current[x] = k;
+            if (next >= 0) {
+                pathNode[depth] = x;
+                pathArc[depth++] = k;
+                x = next;
+                continue;
+            }
+
+            // x leads nowhere: drop it and retreat
+            level[x] = -1;
+            if (depth == 0) return added;
+            x = pathNode[--depth];
+            current[x]++;
+        }
+    }
+
+    // test client: the bound beside a simulation of the same start
+    public static void main(String[] args) {
+        int initPop = Integer.parseInt(args[0]);
+        double awareness = Double.parseDouble(args[1]);
+        RoadMap map = RoadMap.load(args[2]);
+        double kinetic = Double.parseDouble(args[3]);
+        long seed = Long.parseLong(args[4]);
+        int rounds = (args.length > 5) ? Integer.parseInt(args[5]) : 99;
+        double speed = (args.length > 6) ? Double.parseDouble(args[6]) : UNLIMITED;
+
+        // the people a simulation with this seed starts with
+        Routes start = new Routes(map, initPop, seed, Routes.Seeding.UNIFORM);
+        double[] supply = start.getNetwork().copyFlow(new double[map.roads()]);
+
+        long begin = System.nanoTime();
+        EarliestArrival bound = new EarliestArrival(map, supply, kinetic, rounds, speed);
+        double seconds = (System.nanoTime() - begin)*1e-9;
+
+        final double[] simulated = new double[rounds + 1];
+        Simulation.simulate(map, Simulation.termination(map, kinetic), initPop,
+                            awareness, kinetic, seed, Routes.Seeding.UNIFORM,
+                            new RoundObserver() {
+            public void roundFinished(Routes routes, int round, double hazardRadius) {
+                for (int t = Math.max(round, 0); t < simulated.length; t++)
+                    simulated[t] = routes.getEscaped();
+            }
+        });
+
+        StdOut.println("round,escaped,bound");
+        for (int t = 0; t <= rounds; t++)
+            StdOut.printf("%d,%.0f,%.0f\n", t, simulated[t], bound.escaped(t));
+        StdOut.printf("bound in %.1f s\n", seconds);
+    }
+}
@@ -22,6 +22,20 @@ public class Explosion {
         return (K * Math.pow(E/P, 0.2) * Math.pow(t, 0.4));
     }
 
+    // the first time t at which the radius reaches r, or
+    // Integer.MAX_VALUE if no int time does
+    public int getTime (double r) {
+        if (r <= 0) return 0;
+        double t = Math.pow(r / (K * Math.pow(E/P, 0.2)), 2.5);
+        if (!(t < Integer.MAX_VALUE - 1)) return Integer.MAX_VALUE;
+
+        // correct the rounding of the inverse against getRadius itself
+        int time = (int) Math.ceil(t);
+        while (time > 0 && getRadius(time - 1) >= r) time--;
+        while (getRadius(time) < r) time++;
+        return time;
+    }
+
     // creates an Explosion object for testing, outputs blast radius
     //     over a specified number of timesteps
     public static void main(String[] args) {
@@ -0,0 +1,294 @@
+/* FlowHistory.java
+ * Compilation: javac FlowHistory.java
+ * Execution: java FlowHistory initPop awareness roadmap megatons seed history.bin [chunkRounds]
+ *
+ * Dependencies:
+ * Routes.java, RoundObserver.java, RoadMap.java, Simulation.java,
+ * CompactFlowNetwork.java, StdOut.java
+ *
+ * Description: FlowHistory records the flow on every road and the
+ * hazard zone of every intersection after every round of a simulation
+ * into a compact binary file, which FlowHistoryReader reads back.
+ * Rounds are buffered and written in chunks of chunkRounds rounds, and
+ * within a chunk the values are stored by column, one road (or
+ * intersection) after another, so that a road's history is contiguous
+ * and changes little from one value to the next.  A file holds
+ *
+ *     header      magic, format version, roads E, intersections V and
+ *                 rounds per chunk (5 ints)
+ *     chunks      until the end of the file
+ *
+ * and each chunk holds
+ *
+ *     bytes       size of the rest of the chunk (int)
+ *     rounds      number of rounds n (int), their round numbers
+ *                 (n ints) and hazard radii (n doubles)
+ *     sizes       bytes of flows and of zones (2 ints), then the offset
+ *                 into the flows of every EDGE_BLOCK-th road (ints)
+ *     flows       for each road, its n flows as floats, each one
+ *                 delta-encoded against the one before, with runs of
+ *                 unchanged flows encoded together
+ *     zones       for each intersection, its n zones, run-length encoded
+ *                 as (zone byte, run length varint) pairs
+ *
+ * A flow is delta-encoded as the exclusive or of its float bits with
+ * those of the road's previous flow in the chunk (zero for the first),
+ * bit-reversed so that the bits that change in similar floats (sign,
+ * exponent and leading mantissa) come low, then written as a varint,
+ * seven bits a byte.  A delta of zero, an unchanged flow, is never
+ * written alone: a run of them is written as a zero followed by the
+ * run's length less one, so that an empty road costs two bytes a chunk
+ * or less.  Runs end at each EDGE_BLOCK-th road, and every chunk starts
+ * from zero, so a block can be decoded without the ones before it.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class FlowHistory implements RoundObserver {
+    static final int MAGIC = 0x43454648; // "CEFH"
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_BYTES = 5*4;
+    static final int EDGE_BLOCK = 1024; // roads between offsets in a chunk
+
+    private final String filename;
+    private final FileChannel channel;
+    private final int chunkRounds; // rounds per chunk
+
+    private int E = -1; // roads, once the first round is seen
+    private int V; // intersections
+    private int[][] bits; // bits[r][e] = float bits of flow on e in buffered round r
+    private byte[][] zones; // zones[r][v] = zone of v in buffered round r
+    private final int[] rounds; // round numbers of buffered rounds
+    private final double[] radii; // hazard radii of buffered rounds
+    private int buffered; // rounds buffered so far
+    private long recorded; // rounds recorded so far
+    private double[] flow; // scratch copy of a round's flows
+
+    private byte[] out = new byte[1 << 16]; // chunk being encoded
+    private int size; // bytes in out[]
+
+    // records rounds to the named file, chunkRounds at a time
+    public FlowHistory(String filename, int chunkRounds) {
+        if (chunkRounds < 1) throw new RuntimeException("Chunks must hold a round");
+        this.filename = filename;
+        this.chunkRounds = chunkRounds;
+        this.rounds = new int[chunkRounds];
+        this.radii = new double[chunkRounds];
+        try {
+            this.channel = FileChannel.open(Paths.get(filename),
+                                            StandardOpenOption.CREATE,
+                                            StandardOpenOption.TRUNCATE_EXISTING,
+                                            StandardOpenOption.WRITE);
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("Could not open " + filename, ioe);
+        }
+    }
+
+    // records the round routes has just run
+    public void roundFinished(Routes routes, int round, double hazardRadius) {
+        CompactFlowNetwork network = routes.getNetwork();
+        if (E < 0) start(network.E(), routes.getJoints().size());
+        if (network.E() != E || routes.getJoints().size() != V)
+            throw new RuntimeException("Rounds of different maps in one history");
+
+        network.copyFlow(flow);
+        int[] row = bits[buffered];
+        for (int e = 0; e < E; e++)
+            row[e] = Float.floatToIntBits((float) flow[e]);
+        routes.copyZones(zones[buffered]);
+        rounds[buffered] = round;
+        radii[buffered] = hazardRadius;
+        buffered++;
+        recorded++;
+        if (buffered == chunkRounds) flush();
+    }
+
+    // records the settled outcome as the last round
+    public void settled(Routes routes, int round, double hazardRadius) {
+        roundFinished(routes, round, hazardRadius);
+    }
+
+    // number of rounds recorded so far
+    public long rounds() {
+        return recorded;
+    }
+
+    // writes the rounds still buffered and closes the file
+    public void close() {
+        if (E < 0) start(0, 0);
+        if (buffered > 0) flush();
+        try {
+            channel.close();
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("Could not close " + filename, ioe);
+        }
+    }
+
+    // sizes the buffers and writes the header
+    private void start(int E, int V) {
+        this.E = E;
+        this.V = V;
+        this.bits = new int[chunkRounds][E];
+        this.zones = new byte[chunkRounds][V];
+        this.flow = new double[E];
+        size = 0;
+        putInt(MAGIC);
+        putInt(FORMAT_VERSION);
+        putInt(E);
+        putInt(V);
+        putInt(chunkRounds);
+        write();
+    }
+
+    // encodes the buffered rounds as a chunk and writes it
+    private void flush() {
+        int n = buffered;
+        size = 0;
+        putInt(0); // size of the rest, filled in below
+        putInt(n);
+        for (int r = 0; r < n; r++) putInt(rounds[r]);
+        for (int r = 0; r < n; r++) putDouble(radii[r]);
+
+        int sizesAt = size;
+        int blocks = (E + EDGE_BLOCK - 1) / EDGE_BLOCK;
+        for (int k = 0; k < 2 + blocks; k++) putInt(0);
+
+        // flows, one road at a time, with runs of unchanged flows ending
+        // at every block of roads
+        int flowsAt = size;
+        int unchanged = 0;
+        for (int e = 0; e < E; e++) {
+            if (e % EDGE_BLOCK == 0) {
+                putRun(unchanged);
+                unchanged = 0;
+                setInt(sizesAt + 4*(2 + e/EDGE_BLOCK), size - flowsAt);
+            }
+            int prev = 0;
+            for (int r = 0; r < n; r++) {
+                int b = bits[r][e];
+                if (b == prev) unchanged++;
+                else {
+                    putRun(unchanged);
+                    unchanged = 0;
+                    putVarint(Integer.reverse(b ^ prev));
+                }
+                prev = b;
+            }
+        }
+        putRun(unchanged);
+        setInt(sizesAt, size - flowsAt);
+
+        // zones, one intersection at a time, as runs
+        int zonesAt = size;
+        byte value = 0;
+        int run = 0;
+        for (int v = 0; v < V; v++) {
+            for (int r = 0; r < n; r++) {
+                byte z = zones[r][v];
+                if (run > 0 && z != value) {
+                    putByte(value);
+                    putVarint(run);
+                    run = 0;
+                }
+                value = z;
+                run++;
+            }
+        }
+        if (run > 0) {
+            putByte(value);
+            putVarint(run);
+        }
+        setInt(sizesAt + 4, size - zonesAt);
+        setInt(0, size - 4);
+
+        write();
+        buffered = 0;
+    }
+
+    // writes out[0..size) to the file
+    private void write() {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(out, 0, size);
+            while (buf.hasRemaining()) channel.write(buf);
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("Could not write " + filename, ioe);
+        }
+    }
+
+    // appending to out[], big-endian like ByteBuffer
+    private void ensure(int bytes) {
+        if (size + bytes > out.length)
+            out = Arrays.copyOf(out, Math.max(2*out.length, size + bytes));
+    }
+
+    private void putByte(byte b) {
+        ensure(1);
+        out[size++] = b;
+    }
+
+    private void putInt(int x) {
+        ensure(4);
+        setInt(size, x);
+        size += 4;
+    }
+
+    private void setInt(int at, int x) {
+        out[at]   = (byte) (x >>> 24);
+        out[at+1] = (byte) (x >>> 16);
+        out[at+2] = (byte) (x >>> 8);
+        out[at+3] = (byte) x;
+    }
+
+    private void putDouble(double x) {
+        long b = Double.doubleToLongBits(x);
+        putInt((int) (b >>> 32));
+        putInt((int) b);
+    }
+
+    // a run of unchanged flows, as a zero followed by its length less one
+    private void putRun(int run) {
+        if (run == 0) return;
+        putVarint(0);
+        putVarint(run - 1);
+    }
+
+    // x as an unsigned varint, low seven bits first
+    private void putVarint(int x) {
+        ensure(5);
+        while ((x & ~0x7F) != 0) {
+            out[size++] = (byte) ((x & 0x7F) | 0x80);
+            x >>>= 7;
+        }
+        out[size++] = (byte) x;
+    }
+
+    // records a simulation, as Simulation would run it, and reports the
+    // size of the history
+    public static void main(String[] args) {
+        int initPop = Integer.parseInt(args[0]);
+        double awareness = Double.parseDouble(args[1]);
+        RoadMap map = RoadMap.load(args[2]);
+        double kinetic = Double.parseDouble(args[3]);
+        long seed = Long.parseLong(args[4]);
+        String filename = args[5];
+        int chunkRounds = (args.length > 6) ? Integer.parseInt(args[6]) : 16;
+
+        long start = System.nanoTime();
+        FlowHistory history = new FlowHistory(filename, chunkRounds);
+        Simulation.simulate(map, Simulation.termination(map, kinetic), initPop, awareness,
+                            kinetic, seed, Routes.Seeding.UNIFORM, history);
+        history.close();
+        StdOut.printf("%d rounds of %d roads in %d bytes, %.1f s\n", history.rounds(),
+                      map.roads(), new File(filename).length(),
+                      (System.nanoTime() - start)*1e-9);
+    }
+}
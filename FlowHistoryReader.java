@@ -0,0 +1,272 @@
+/* FlowHistoryReader.java
+ * Compilation: javac FlowHistoryReader.java
+ * Execution: java FlowHistoryReader history.bin
+ *
+ * Dependencies:
+ * FlowHistory.java, Routes.java, StdOut.java
+ *
+ * Description: FlowHistoryReader reads a history written by
+ * FlowHistory.  Opening a history reads only the chunk headers; a
+ * round's flows or zones are decoded from the one chunk that holds
+ * them, and a road's flows over the whole run are decoded from one
+ * block of EDGE_BLOCK roads in each chunk, so no query reads the whole
+ * file.  Rounds are numbered by record, 0 to rounds()-1, in the order
+ * they were recorded; round(t) gives the simulation's number for each.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class FlowHistoryReader {
+    private final String filename;
+    private final FileChannel channel;
+    private final int E; // roads
+    private final int V; // intersections
+    private final int chunkRounds; // rounds per chunk, but for the last
+
+    private int records; // rounds recorded
+    private int[] roundOf; // roundOf[t] = simulation round of record t
+    private double[] radiusOf; // radiusOf[t] = hazard radius of record t
+    private long[] chunkAt; // chunkAt[c] = file position of chunk c
+    private int[] chunkSize; // chunkSize[c] = bytes in chunk c
+    private int chunks;
+
+    // the chunk decoded last
+    private int cached = -1;
+    private ByteBuffer chunk;
+    private int count; // rounds in the chunk
+    private int flowsAt; // position of its flows
+    private int zonesAt; // position of its zones
+    private int[] offsets; // offsets of every EDGE_BLOCK-th road into its flows
+    private int unchanged; // deltas of zero still to come in the current run
+
+    // opens the history in the named file and reads its chunk headers
+    public FlowHistoryReader(String filename) {
+        this.filename = filename;
+        try {
+            channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+            ByteBuffer header = read(0, FlowHistory.HEADER_BYTES);
+            if (header.getInt() != FlowHistory.MAGIC)
+                throw new RuntimeException(filename + " is not a flow history");
+            int format = header.getInt();
+            if (format != FlowHistory.FORMAT_VERSION)
+                throw new RuntimeException(filename + " has format version " + format
+                                           + ", expected " + FlowHistory.FORMAT_VERSION);
+            E = header.getInt();
+            V = header.getInt();
+            chunkRounds = header.getInt();
+
+            roundOf = new int[16];
+            radiusOf = new double[16];
+            chunkAt = new long[4];
+            chunkSize = new int[4];
+            long position = FlowHistory.HEADER_BYTES;
+            long end = channel.size();
+            while (position < end) {
+                ByteBuffer head = read(position, 8);
+                int bytes = head.getInt();
+                int n = head.getInt();
+                ByteBuffer rounds = read(position + 8, 12*n);
+                if (chunks == chunkAt.length) {
+                    chunkAt = Arrays.copyOf(chunkAt, 2*chunks);
+                    chunkSize = Arrays.copyOf(chunkSize, 2*chunks);
+                }
+                chunkAt[chunks] = position + 4;
+                chunkSize[chunks] = bytes;
+                chunks++;
+                while (records + n > roundOf.length) {
+                    roundOf = Arrays.copyOf(roundOf, 2*roundOf.length);
+                    radiusOf = Arrays.copyOf(radiusOf, 2*radiusOf.length);
+                }
+                for (int r = 0; r < n; r++) roundOf[records + r] = rounds.getInt();
+                for (int r = 0; r < n; r++) radiusOf[records + r] = rounds.getDouble();
+                records += n;
+                position += 4L + bytes;
+            }
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("Could not read " + filename, ioe);
+        }
+    }
+
+    // accessor methods
+    public int roads()                 { return E;           }
+    public int intersections()         { return V;           }
+    public int rounds()                { return records;     }
+    public int round(int t)            { check(t); return roundOf[t];  }
+    public double hazardRadius(int t)  { check(t); return radiusOf[t]; }
+
+    // copies the flow on every road in record t into into[], which it returns
+    public float[] flows(int t, float[] into) {
+        check(t);
+        if (into.length != E) throw new RuntimeException("Wrong number of flows");
+        load(t / chunkRounds);
+        int j = t % chunkRounds;
+        chunk.position(flowsAt);
+        unchanged = 0;
+        for (int e = 0; e < E; e++) {
+            int prev = 0;
+            for (int r = 0; r < count; r++) {
+                prev ^= Integer.reverse(nextDelta());
+                if (r == j) into[e] = Float.intBitsToFloat(prev);
+            }
+        }
+        return into;
+    }
+
+    // copies the zone of every intersection in record t, Routes.OPEN,
+    // Routes.DEAD or Routes.ESCAPED, into into[], which it returns
+    public byte[] zones(int t, byte[] into) {
+        check(t);
+        if (into.length != V) throw new RuntimeException("Wrong number of zones");
+        load(t / chunkRounds);
+        int j = t % chunkRounds;
+        chunk.position(zonesAt);
+
+        // values are stored by intersection, so record t's zones are
+        // those at positions j, j + count, j + 2*count, ...
+        long at = 0; // position of the start of the run
+        long next = j; // next position of record t
+        while (next < (long) V*count) {
+            byte value = chunk.get();
+            long run = getVarint(chunk) & 0xFFFFFFFFL;
+            for (; next < at + run; next += count)
+                into[(int) (next / count)] = value;
+            at += run;
+        }
+        return into;
+    }
+
+    // flow on road e in every record, oldest first
+    public float[] history(int e) {
+        if (e < 0 || e >= E) throw new RuntimeException("No road " + e);
+        float[] flows = new float[records];
+        for (int c = 0, t = 0; c < chunks; c++) {
+            load(c);
+            chunk.position(flowsAt + offsets[e / FlowHistory.EDGE_BLOCK]);
+            unchanged = 0;
+            for (int k = (e % FlowHistory.EDGE_BLOCK)*count; k > 0; k--)
+                nextDelta();
+            int prev = 0;
+            for (int r = 0; r < count; r++) {
+                prev ^= Integer.reverse(nextDelta());
+                flows[t++] = Float.intBitsToFloat(prev);
+            }
+        }
+        return flows;
+    }
+
+    // closes the file
+    public void close() {
+        try {
+            channel.close();
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("Could not close " + filename, ioe);
+        }
+    }
+
+    private void check(int t) {
+        if (t < 0 || t >= records) throw new RuntimeException("No record " + t);
+    }
+
+    // maps chunk c and reads its sizes, unless it is already loaded
+    private void load(int c) {
+        if (c == cached) return;
+        try {
+            chunk = channel.map(FileChannel.MapMode.READ_ONLY, chunkAt[c], chunkSize[c]);
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("Could not read " + filename, ioe);
+        }
+        count = chunk.getInt();
+        chunk.position(4 + 12*count);
+        int flowBytes = chunk.getInt();
+        chunk.getInt(); // bytes of zones, which run to the end of the chunk
+        offsets = new int[(E + FlowHistory.EDGE_BLOCK - 1) / FlowHistory.EDGE_BLOCK];
+        for (int k = 0; k < offsets.length; k++) offsets[k] = chunk.getInt();
+        flowsAt = chunk.position();
+        zonesAt = flowsAt + flowBytes;
+        cached = c;
+    }
+
+    // n bytes of the file from position on
+    private ByteBuffer read(long position, int n) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(n);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0)
+                throw new RuntimeException(filename + " is truncated");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    // next delta in the flows of the current chunk, bit-reversed
+    private int nextDelta() {
+        if (unchanged > 0) {
+            unchanged--;
+            return 0;
+        }
+        int x = getVarint(chunk);
+        if (x == 0) unchanged = getVarint(chunk);
+        return x;
+    }
+
+    // next unsigned varint, low seven bits first
+    private static int getVarint(ByteBuffer buf) {
+        int x = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buf.get();
+            x |= (b & 0x7F) << shift;
+            if (b >= 0) return x;
+        }
+    }
+
+    // test client: per-round totals of a history, and the roads whose
+    // flow peaked highest
+    public static void main(String[] args) {
+        FlowHistoryReader history = new FlowHistoryReader(args[0]);
+        StdOut.println(history.rounds() + " rounds of " + history.roads() + " roads and "
+                       + history.intersections() + " intersections");
+
+        float[] flows = new float[history.roads()];
+        byte[] zones = new byte[history.intersections()];
+        float[] peak = new float[history.roads()];
+        for (int t = 0; t < history.rounds(); t++) {
+            history.flows(t, flows);
+            history.zones(t, zones);
+            double total = 0;
+            for (int e = 0; e < flows.length; e++) {
+                total += flows[e];
+                peak[e] = Math.max(peak[e], flows[e]);
+            }
+            int dead = 0, escaped = 0;
+            for (byte z : zones) {
+                if      (z == Routes.DEAD)    dead++;
+                else if (z == Routes.ESCAPED) escaped++;
+            }
+            StdOut.printf("round %d: radius %.3f, flow %.0f, %d dead and %d escaped intersections\n",
+                          history.round(t), history.hazardRadius(t), total, dead, escaped);
+        }
+
+        // the five roads with the highest peak flow, and their histories
+        Integer[] order = new Integer[history.roads()];
+        for (int e = 0; e < order.length; e++) order[e] = e;
+        final float[] peaks = peak;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer e, Integer f) {
+                return Float.compare(peaks[f], peaks[e]);
+            }
+        });
+        for (int k = 0; k < Math.min(5, order.length); k++) {
+            int e = order[k];
+            StdOut.println("road " + e + ": " + Arrays.toString(history.history(e)));
+        }
+        history.close();
+    }
+}
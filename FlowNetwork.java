@@ -7,6 +7,8 @@
  *
  *************************************************************************/
 
+import java.util.SplittableRandom;
+
 public class FlowNetwork {
     private final int V;
     private int E;
@@ -39,11 +41,17 @@ public class FlowNetwork {
 
     // random graph with V vertices and E edges
     public FlowNetwork(int V, int E) {
+        this(V, E, new SplittableRandom());
+    }
+
+    // random graph with V vertices and E edges, drawn from the given
+    // generator, so the same seed gives the same graph
+    public FlowNetwork(int V, int E, SplittableRandom random) {
         this(V);
         for (int i = 0; i < E; i++) {
-            int v = StdRandom.uniform(V);
-            int w = StdRandom.uniform(V);
-            double capacity = StdRandom.uniform(100);
+            int v = random.nextInt(V);
+            int w = random.nextInt(V);
+            double capacity = random.nextInt(100);
             addEdge(new FlowEdge(v, w, capacity));
         }
     }
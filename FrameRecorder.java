@@ -0,0 +1,187 @@
+/* FrameRecorder.java
+ * Compilation: javac FrameRecorder.java
+ * Execution: java FrameRecorder initPop awareness roadmap megatons seed prefix [size [threads]]
+ *
+ * Dependencies:
+ * Routes.java, RoundObserver.java, LodRenderer.java, RoadMap.java,
+ * Simulation.java, CompactFlowNetwork.java, PointIndex.java, StdOut.java
+ *
+ * Description: FrameRecorder writes every round of a simulation to a
+ * numbered PNG file, prefix0000.png, prefix0001.png and so on, without
+ * a display and without pausing between rounds.  Files are numbered by
+ * frame, in the order rounds are recorded, so the sequence has no gaps
+ * even where the simulation skips rounds.  After every round the
+ * simulation copies the roads' flows into a snapshot and queues it; a
+ * pool of worker threads, each with a LodRenderer of its own, takes
+ * snapshots off the queue, renders them off-screen and encodes them, so
+ * frames are rendered and encoded on every core while the simulation
+ * runs on.  Unlike AsyncRenderer, no frame is ever dropped: when every
+ * snapshot buffer is in use the simulation waits for one to be written.
+ * Call close() after the last round to write the frames still waiting
+ * and stop the workers.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+
+public class FrameRecorder implements RoundObserver {
+    private static final Frame END = new Frame(0); // tells a worker to stop
+
+    private final String prefix; // path of every file, up to its number
+    private final BlockingQueue<Frame> waiting; // frames to write, oldest first
+    private final BlockingQueue<Frame> spare; // written frames, ready for reuse
+    private final int maxFrames; // frames ever allocated
+    private int frames; // frames allocated so far
+    private long written; // frames queued so far
+    private final Thread[] workers;
+    private volatile RuntimeException failure; // what stopped a worker, if anything
+
+    // a snapshot of one round
+    private static class Frame {
+        CompactFlowNetwork network;
+        PointIndex joints;
+        final double[] flow;
+        int number; // position in the sequence of frames
+        int round;
+        double hazardRadius;
+
+        Frame(int E) {
+            flow = new double[E];
+        }
+    }
+
+    // writes size-by-size images of [-scale, scale] to files named
+    // prefix followed by the frame number, rendering them on threads workers
+    public FrameRecorder(final double scale, final int size, String prefix, int threads) {
+        if (threads < 1) throw new RuntimeException("Need at least one thread");
+        this.prefix = prefix;
+        this.maxFrames = 2*threads; // one being written and one waiting per worker
+        this.waiting = new ArrayBlockingQueue<Frame>(maxFrames + threads); // room for END
+        this.spare = new ArrayBlockingQueue<Frame>(maxFrames);
+        this.workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    writeFrames(new LodRenderer(scale, size, 0));
+                }
+            }, "FrameRecorder-" + t);
+            workers[t].setDaemon(true);
+            workers[t].start();
+        }
+    }
+
+    // queues a snapshot of the round routes has just run, waiting for a
+    // snapshot buffer if they are all in use
+    public void roundFinished(Routes routes, int round, double hazardRadius) {
+        if (failure != null) throw failure;
+        CompactFlowNetwork network = routes.getNetwork();
+
+        // reuse a written frame, or make a new one, or else wait for one
+        Frame f = spare.poll();
+        if (f == null && frames < maxFrames) {
+            f = new Frame(network.E());
+            frames++;
+        }
+        try {
+            while (f == null) {
+                f = spare.poll(100, TimeUnit.MILLISECONDS);
+                if (failure != null) throw failure;
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (f.flow.length != network.E()) f = new Frame(network.E());
+
+        f.network = network;
+        f.joints = routes.getJoints();
+        network.copyFlow(f.flow);
+        f.number = (int) written;
+        f.round = round;
+        f.hazardRadius = hazardRadius;
+        waiting.offer(f);
+        written++;
+    }
+
+    // queues a snapshot of the settled outcome as the last frame
+    public void settled(Routes routes, int round, double hazardRadius) {
+        roundFinished(routes, round, hazardRadius);
+    }
+
+    // number of frames queued for writing so far
+    public long frames() {
+        return written;
+    }
+
+    // name of the file the given frame, counting from 0, is written to
+    public String filename(int frame) {
+        return String.format("%s%04d.png", prefix, frame);
+    }
+
+    // writes the frames still waiting, then stops the workers
+    public void close() {
+        try {
+            for (int t = 0; t < workers.length; t++)
+                waiting.put(END);
+            for (Thread worker : workers)
+                worker.join();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) throw failure;
+    }
+
+    // a worker's loop
+    private void writeFrames(LodRenderer renderer) {
+        try {
+            while (true) {
+                Frame f = waiting.take();
+                if (f == END) return;
+                String filename = filename(f.number);
+                try {
+                    ImageIO.write(renderer.render(f.network, f.joints, f.flow,
+                                                  f.round, f.hazardRadius),
+                                  "png", new File(filename));
+                }
+                catch (IOException ioe) {
+                    throw new RuntimeException("Could not write " + filename, ioe);
+                }
+                spare.offer(f);
+            }
+        }
+        catch (InterruptedException ie) {
+            // stop writing
+        }
+        catch (RuntimeException re) {
+            failure = re;
+        }
+    }
+
+    // records a simulation, as Simulation would run it, and reports how
+    // long it took
+    public static void main(String[] args) {
+        int initPop = Integer.parseInt(args[0]);
+        double awareness = Double.parseDouble(args[1]);
+        RoadMap map = RoadMap.load(args[2]);
+        double kinetic = Double.parseDouble(args[3]);
+        long seed = Long.parseLong(args[4]);
+        String prefix = args[5];
+        int size = (args.length > 6) ? Integer.parseInt(args[6]) : 512;
+        int threads = (args.length > 7) ? Integer.parseInt(args[7])
+                                        : Runtime.getRuntime().availableProcessors();
+
+        long start = System.nanoTime();
+        FrameRecorder recorder = new FrameRecorder(map.scale(), size, prefix, threads);
+        Simulation.simulate(map, Simulation.termination(map, kinetic), initPop, awareness,
+                            kinetic, seed, Routes.Seeding.UNIFORM, recorder);
+        recorder.close();
+        StdOut.printf("%d frames written in %.1f s\n", recorder.frames(),
+                      (System.nanoTime() - start)*1e-9);
+    }
+}
@@ -0,0 +1,14 @@
+/* FrameRenderer.java
+ *
+ * Description: a FrameRenderer draws one round of a simulation from a
+ * snapshot: the road network's fixed topology and capacities, the
+ * intersections' coordinates, and a copy of the flow on every road.
+ * It may be called on any thread, but only one thread at a time, and
+ * must not keep flow after it returns.
+ */
+
+public interface FrameRenderer {
+    // draws round, in which flow[e] people were on road e of network
+    void draw(CompactFlowNetwork network, PointIndex joints, double[] flow,
+              int round, double hazardRadius);
+}
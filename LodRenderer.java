@@ -0,0 +1,270 @@
+/* LodRenderer.java
+ * Compilation: javac LodRenderer.java
+ *
+ * Dependencies:
+ * Routes.java, RoundObserver.java, FrameRenderer.java,
+ * CompactFlowNetwork.java, PointIndex.java, StdDraw.java
+ *
+ * Description: LodRenderer draws a simulation at a level of detail that
+ * suits the size of each road on screen, so that maps with millions of
+ * roads can still be watched.  A road at least a pixel long is drawn as
+ * a line, gray as thick as its capacity under white as thick as its
+ * flow, with a flow / capacity label only once it is long enough for
+ * the label to be read.  Shorter roads are not drawn at all: their
+ * capacities and flows are summed into square heatmap cells, and each
+ * cell is shaded by its capacity, then lit by the share of it in use.
+ *
+ * The roads never change, so the gray layer (lines, intersections and
+ * cell capacities) is drawn once into an off-screen image; each frame
+ * copies that image and draws only the flows and labels over it.
+ * Frames are drawn into an image of their own, which render() returns;
+ * draw() also shows it in the StdDraw window, which is only opened by
+ * the first call to draw().
+ */
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+public class LodRenderer implements RoundObserver, FrameRenderer {
+    private static final double LINE_MIN = 1.0; // shortest road drawn as a line, in pixels
+    private static final double LABEL_MIN = 40.0; // shortest road drawn with a label, in pixels
+    private static final int CELL = 4; // side of a heatmap cell, in pixels
+    private static final double PEN = 0.005; // line width per person, as a fraction of the image
+    private static final int MAX_STROKE = 32; // widest line, in pixels
+    private static final int LEVELS = 64; // shades of gray and of white in the heatmap
+
+    private static final int SUBPIXEL = -1; // kind of a road summed into a cell
+    private static final int LINE = 0; // kind of a road drawn as a line
+    private static final int LABEL = 1; // kind of a road drawn as a line with a label
+
+    private final double scale; // images show [-scale, scale] in x and y
+    private final int size; // width and height of images, in pixels
+    private final int pause; // milliseconds to show each round for
+
+    private final BufferedImage frame; // image of the latest round
+    private final Graphics2D g;
+    private final BufferedImage roads; // the roads alone, without flow
+    private final BasicStroke[] strokes = new BasicStroke[2*MAX_STROKE + 1]; // by half pixels
+    private final Color[] grays = new Color[LEVELS];
+    private final Color[] whites = new Color[LEVELS];
+    private final Font font = new Font("SansSerif", Font.PLAIN, 10);
+
+    // layout of the network the roads image shows
+    private CompactFlowNetwork network;
+    private PointIndex joints;
+    private float[] sx, sy; // pixel coordinates of each intersection
+    private int[] kind; // kind[e] = SUBPIXEL, LINE or LABEL
+    private int[] cellOf; // cellOf[e] = heatmap cell of road e, if it is SUBPIXEL
+    private final int cells; // heatmap cells across the image
+    private final double[] cellCapacity; // total capacity of the roads in each cell
+    private final double[] cellFlow; // total flow on the roads in each cell, this frame
+    private double[] flow; // this round's flows, when drawing as an observer
+    private boolean shown; // has the StdDraw window been opened?
+
+    // renders size-by-size images of [-scale, scale], pausing for pause
+    // milliseconds after showing each round
+    public LodRenderer(double scale, int size, int pause) {
+        if (size < 1) throw new RuntimeException("Image must be at least a pixel");
+        this.scale = scale;
+        this.size = size;
+        this.pause = pause;
+        this.frame = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        this.roads = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        this.g = frame.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setFont(font);
+        this.cells = (size + CELL - 1) / CELL;
+        this.cellCapacity = new double[cells*cells];
+        this.cellFlow = new double[cells*cells];
+        for (int k = 0; k < LEVELS; k++) {
+            int level = 255*(k+1)/LEVELS;
+            grays[k] = new Color(level/2, level/2, level/2);
+            whites[k] = new Color(255, 255, 255, level);
+        }
+    }
+
+    // draws the round routes has just run
+    public void roundFinished(Routes routes, int round, double hazardRadius) {
+        CompactFlowNetwork network = routes.getNetwork();
+        if (flow == null || flow.length != network.E())
+            flow = new double[network.E()];
+        draw(network, routes.getJoints(), network.copyFlow(flow), round, hazardRadius);
+    }
+
+    // renders round and shows it in the StdDraw window
+    public void draw(CompactFlowNetwork network, PointIndex joints, double[] flow,
+                     int round, double hazardRadius) {
+        BufferedImage image = render(network, joints, flow, round, hazardRadius);
+        if (!shown) {
+            StdDraw.setCanvasSize(size, size);
+            StdDraw.setScale(-1.0*scale, scale);
+            shown = true;
+        }
+        StdDraw.picture(0, 0, image);
+        StdDraw.show(pause);
+    }
+
+    /*
+     * renders round into an image and returns it; the image belongs to
+     * this renderer and is drawn over by the next call
+     */
+    public BufferedImage render(CompactFlowNetwork network, PointIndex joints, double[] flow,
+                                int round, double hazardRadius) {
+        if (network != this.network || joints != this.joints) layout(network, joints);
+        g.drawImage(roads, 0, 0, null);
+
+        // flows on lines, and sums of flows in cells
+        Arrays.fill(cellFlow, 0.0);
+        g.setColor(Color.WHITE);
+        int n = joints.size();
+        for (int v = 0; v < n; v++) {
+            for (int k = network.outBegin(v); k < network.outEnd(v); k++) {
+                int e = network.outEdge(k);
+                if (flow[e] <= 0 || kind[e] == SUBPIXEL && cellOf[e] < 0) continue;
+                if (kind[e] == SUBPIXEL) {
+                    cellFlow[cellOf[e]] += flow[e];
+                    continue;
+                }
+                int w = network.to(e);
+                g.setStroke(stroke(flow[e], length(v, w)));
+                g.drawLine(Math.round(sx[v]), Math.round(sy[v]), Math.round(sx[w]), Math.round(sy[w]));
+            }
+        }
+        for (int c = 0; c < cellFlow.length; c++) {
+            if (cellFlow[c] <= 0) continue;
+            double used = Math.min(1.0, cellFlow[c] / cellCapacity[c]);
+            g.setColor(whites[level(Math.sqrt(used))]);
+            g.fillRect((c % cells)*CELL, (c / cells)*CELL, CELL, CELL);
+        }
+
+        // labels, for roads long enough to hold them
+        g.setColor(Color.WHITE);
+        FontMetrics metrics = g.getFontMetrics();
+        for (int v = 0; v < n; v++) {
+            for (int k = network.outBegin(v); k < network.outEnd(v); k++) {
+                int e = network.outEdge(k);
+                if (kind[e] != LABEL) continue;
+                int w = network.to(e);
+                String stats = flow[e] + " / " + network.capacity(e);
+                float x = 0.5f*(sx[v] + sx[w]) - 0.5f*metrics.stringWidth(stats);
+                float y = 0.5f*(sy[v] + sy[w]) + 0.5f*(metrics.getAscent() - metrics.getDescent());
+                g.drawString(stats, x, y);
+            }
+        }
+
+        // detonation point and hazard radius
+        float cx = x(0), cy = y(0);
+        float r = (float) (hazardRadius / (2.0*scale) * size);
+        g.setStroke(new BasicStroke((float) Math.max(1.0, 0.0025*size)));
+        g.fillOval(Math.round(cx - 2), Math.round(cy - 2), 5, 5);
+        g.drawOval(Math.round(cx - r), Math.round(cy - r), Math.round(2*r), Math.round(2*r));
+        return frame;
+    }
+
+    /*
+     * sorts the roads of network into lines, labelled lines and heatmap
+     * cells, and draws them in gray into the roads image
+     */
+    private void layout(CompactFlowNetwork network, PointIndex joints) {
+        this.network = network;
+        this.joints = joints;
+        int n = joints.size();
+        sx = new float[n];
+        sy = new float[n];
+        for (int v = 0; v < n; v++) {
+            sx[v] = x(joints.x(v));
+            sy[v] = y(joints.y(v));
+        }
+
+        Graphics2D r = roads.createGraphics();
+        r.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        r.setColor(Color.BLACK);
+        r.fillRect(0, 0, size, size);
+
+        // lines, in gray as thick as their capacities
+        kind = new int[network.E()];
+        cellOf = new int[network.E()];
+        Arrays.fill(cellCapacity, 0.0);
+        r.setColor(Color.GRAY);
+        for (int v = 0; v < n; v++) {
+            for (int k = network.outBegin(v); k < network.outEnd(v); k++) {
+                int e = network.outEdge(k);
+                int w = network.to(e);
+                double length = length(v, w);
+                if (length < LINE_MIN) {
+                    kind[e] = SUBPIXEL;
+                    cellOf[e] = cell(0.5f*(sx[v] + sx[w]), 0.5f*(sy[v] + sy[w]));
+                    if (cellOf[e] >= 0) cellCapacity[cellOf[e]] += network.capacity(e);
+                    continue;
+                }
+                kind[e] = (length < LABEL_MIN) ? LINE : LABEL;
+                cellOf[e] = -1;
+                r.setStroke(stroke(network.capacity(e), length));
+                r.drawLine(Math.round(sx[v]), Math.round(sy[v]), Math.round(sx[w]), Math.round(sy[w]));
+            }
+        }
+
+        // cells, shaded by their total capacity relative to the fullest
+        double most = 0;
+        for (int c = 0; c < cellCapacity.length; c++)
+            most = Math.max(most, cellCapacity[c]);
+        for (int c = 0; c < cellCapacity.length; c++) {
+            if (cellCapacity[c] <= 0) continue;
+            r.setColor(grays[level(Math.sqrt(cellCapacity[c] / most))]);
+            r.fillRect((c % cells)*CELL, (c / cells)*CELL, CELL, CELL);
+        }
+
+        // intersections at the ends of lines
+        r.setColor(Color.WHITE);
+        for (int v = 0; v < n; v++) {
+            for (int k = network.outBegin(v); k < network.outEnd(v); k++) {
+                if (kind[network.outEdge(k)] == SUBPIXEL) continue;
+                r.fillRect(Math.round(sx[v]) - 1, Math.round(sy[v]) - 1, 2, 2);
+                break;
+            }
+        }
+        r.dispose();
+    }
+
+    // pixel coordinates of a point of the plane
+    private float x(double x) { return (float) ((x + scale) / (2.0*scale) * size); }
+    private float y(double y) { return (float) ((scale - y) / (2.0*scale) * size); }
+
+    // length on screen of the road from v to w, in pixels
+    private double length(int v, int w) {
+        double dx = sx[w] - sx[v];
+        double dy = sy[w] - sy[v];
+        return Math.sqrt(dx*dx + dy*dy);
+    }
+
+    // heatmap cell holding pixel (x, y), or -1 if it is off the image
+    private int cell(float x, float y) {
+        if (!(x >= 0 && x < size && y >= 0 && y < size)) return -1;
+        return ((int) y / CELL)*cells + (int) x / CELL;
+    }
+
+    // shade for a fraction in [0, 1]
+    private static int level(double fraction) {
+        return Math.min(LEVELS - 1, (int) (fraction*LEVELS));
+    }
+
+    /*
+     * stroke for a line standing for amount people, no wider than half
+     * the road's length so that neighbouring roads stay apart; widths
+     * are rounded to half pixels so that strokes can be reused
+     */
+    private BasicStroke stroke(double amount, double length) {
+        double width = Math.min(amount*PEN*size, Math.min(MAX_STROKE, 0.5*length));
+        int halves = Math.max(1, (int) Math.round(2*width));
+        if (strokes[halves] == null)
+            strokes[halves] = new BasicStroke(0.5f*halves, BasicStroke.CAP_ROUND,
+                                              BasicStroke.JOIN_ROUND);
+        return strokes[halves];
+    }
+}
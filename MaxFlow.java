@@ -0,0 +1,42 @@
+/* MaxFlow.java
+ *
+ * Dependencies:
+ * FordFulkerson.java, PushRelabel.java, Dinic.java, FlowNetwork.java,
+ * CompactFlowNetwork.java
+ *
+ * Description: a MaxFlow is a maximum flow from s to t, left on the
+ * edges of the network it was computed on, and the minimum cut that
+ * proves it: the vertices still reachable from s in the residual
+ * network.  Every algorithm finds the same value and the same cut,
+ * though not necessarily the same flow.  solve() picks an algorithm by
+ * name, e.g. from a command-line argument.
+ */
+
+public interface MaxFlow {
+    // value of the max flow
+    double value();
+
+    // is v on the s side of the min cut?
+    boolean inCut(int v);
+
+    // max flow in G from s to t by the named algorithm, ignoring case
+    static MaxFlow solve(String name, FlowNetwork G, int s, int t) {
+        if (name.equalsIgnoreCase("fordfulkerson")) return new FordFulkerson(G, s, t);
+        if (name.equalsIgnoreCase("pushrelabel"))   return new PushRelabel(G, s, t);
+        if (name.equalsIgnoreCase("dinic"))         return new Dinic(G, s, t);
+        throw unknown(name);
+    }
+
+    // same as above, for a compact flow network
+    static MaxFlow solve(String name, CompactFlowNetwork G, int s, int t) {
+        if (name.equalsIgnoreCase("fordfulkerson")) return new FordFulkerson(G, s, t);
+        if (name.equalsIgnoreCase("pushrelabel"))   return new PushRelabel(G, s, t);
+        if (name.equalsIgnoreCase("dinic"))         return new Dinic(G, s, t);
+        throw unknown(name);
+    }
+
+    static RuntimeException unknown(String name) {
+        return new RuntimeException("Unknown max-flow algorithm " + name
+                                    + ", expected fordfulkerson, pushrelabel or dinic");
+    }
+}
@@ -0,0 +1,152 @@
+/*************************************************************************
+ *  Compilation:  javac Multinomial.java
+ *  Execution:    java Multinomial N k
+ *  Dependencies: StdOut.java
+ *
+ *  Exact binomial and multinomial sampling from a SplittableRandom.
+ *
+ *  A multinomial draw of N items into k weighted bins is made as a
+ *  chain of conditional binomials: bin i receives Binomial(n, w_i / W)
+ *  of the n items not yet placed, where W is the weight of bins i..k-1.
+ *  Binomials with a small mean are drawn by inversion; larger ones are
+ *  split with a beta-distributed order statistic (Knuth, TAOCP 3.4.1),
+ *  which halves n at every step.  A draw therefore costs time
+ *  proportional to k (plus a logarithmic factor for crowded bins),
+ *  however large N is.
+ *
+ *************************************************************************/
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public class Multinomial {
+    private static final double INVERSION_MEAN = 30.0; // largest mean drawn by inversion
+
+    // counts[i] = items of n that land in bin i, with probability
+    // proportional to weights[i]; returns counts
+    public static int[] sample(SplittableRandom random, int n, double[] weights, int[] counts) {
+        int k = weights.length;
+        if (counts.length != k) throw new RuntimeException("counts and weights differ in length");
+
+        // suffix[i] = total weight of bins i..k-1, summed from the back so
+        // that no rounding error accumulates into the last bins
+        double[] suffix = new double[k+1];
+        for (int i = k-1; i >= 0; i--) {
+            if (weights[i] < 0) throw new RuntimeException("Negative weight");
+            suffix[i] = suffix[i+1] + weights[i];
+        }
+        if (n > 0 && !(suffix[0] > 0)) throw new RuntimeException("No positive weight");
+
+        int left = n;
+        for (int i = 0; i < k; i++) {
+            if (left == 0 || weights[i] == 0) {
+                counts[i] = 0;
+                continue;
+            }
+            double p = weights[i] / suffix[i];
+            counts[i] = (p >= 1.0) ? left : binomial(random, left, p);
+            left -= counts[i];
+        }
+        return counts;
+    }
+
+    // number of successes in n trials with success probability p
+    public static int binomial(SplittableRandom random, int n, double p) {
+        if (p < 0 || p > 1) throw new RuntimeException("Probability out of range");
+        if (n == 0 || p == 0) return 0;
+        if (p == 1) return n;
+        if (p > 0.5) return n - binomial(random, n, 1.0 - p);
+
+        // split a large draw at the a-th order statistic of n uniforms,
+        // which is Beta(a, b) distributed
+        int successes = 0;
+        while (n*p > INVERSION_MEAN) {
+            int a = 1 + n/2;
+            int b = n + 1 - a;
+            double x = beta(random, a, b);
+            if (x >= p) {
+                n = a - 1;
+                p = p / x;
+            }
+            else {
+                successes += a;
+                n = b - 1;
+                p = (p - x) / (1.0 - x);
+            }
+        }
+        return successes + inversion(random, n, p);
+    }
+
+    // binomial draw by inversion of the distribution function, for
+    // n*p small
+    private static int inversion(SplittableRandom random, int n, double p) {
+        double q = 1.0 - p;
+        double s = p / q;
+        double a = (n + 1) * s;
+        double r = Math.pow(q, n); // P(X = 0)
+        double u = random.nextDouble();
+        int x = 0;
+        while (u > r && x < n) {
+            u -= r;
+            x++;
+            r *= (a / x - s);
+        }
+        return x;
+    }
+
+    // Beta(a, b) as a ratio of gammas
+    private static double beta(SplittableRandom random, double a, double b) {
+        double x = gamma(random, a);
+        double y = gamma(random, b);
+        return x / (x + y);
+    }
+
+    // Gamma(shape, 1), shape >= 1, by Marsaglia and Tsang's method
+    private static double gamma(SplittableRandom random, double shape) {
+        double d = shape - 1.0/3.0;
+        double c = 1.0 / Math.sqrt(9.0*d);
+        while (true) {
+            double x, v;
+            do {
+                x = gaussian(random);
+                v = 1.0 + c*x;
+            } while (v <= 0);
+            v = v*v*v;
+            double u = random.nextDouble();
+            if (u < 1.0 - 0.0331*x*x*x*x) return d*v;
+            if (Math.log(u) < 0.5*x*x + d*(1.0 - v + Math.log(v))) return d*v;
+        }
+    }
+
+    // standard normal, by the polar method
+    private static double gaussian(SplittableRandom random) {
+        double r, x, y;
+        do {
+            x = random.nextDouble(-1.0, 1.0);
+            y = random.nextDouble(-1.0, 1.0);
+            r = x*x + y*y;
+        } while (r >= 1 || r == 0);
+        return x * Math.sqrt(-2 * Math.log(r) / r);
+    }
+
+    // test client: N items into k equally weighted bins; prints the
+    // bins' sample mean and variance, which should be near N/k and
+    // N/k * (1 - 1/k)
+    public static void main(String[] args) {
+        int N = Integer.parseInt(args[0]);
+        int k = Integer.parseInt(args[1]);
+        SplittableRandom random = new SplittableRandom();
+        double[] weights = new double[k];
+        Arrays.fill(weights, 1.0);
+        int[] counts = sample(random, N, weights, new int[k]);
+
+        long total = 0;
+        for (int c : counts) total += c;
+        double mean = (double) total / k;
+        double var = 0;
+        for (int c : counts) var += (c - mean)*(c - mean);
+        var /= (k - 1);
+        StdOut.println("total " + total + ", mean " + mean + ", variance " + var
+                       + " (expected " + ((double) N/k) * (1 - 1.0/k) + ")");
+    }
+}
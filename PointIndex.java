@@ -0,0 +1,151 @@
+/* PointIndex.java
+ * Compilation: javac PointIndex.java
+ *
+ * Dependencies:
+ * Point.java, In.java, StdOut.java
+ *
+ * Description: PointIndex numbers the distinct points of the plane it
+ * is given, in the order they are first seen, and maps a coordinate
+ * pair back to its number in amortized constant time.  Numbers are
+ * kept in an open-addressing (linear probing) hash table keyed by the
+ * bit patterns of x and y, and coordinates are kept by number in two
+ * dense arrays, so no Point objects are created along the way.
+ */
+
+import java.util.Arrays;
+
+public class PointIndex {
+    private static final int EMPTY = -1; // marks an unused slot
+
+    private int N; // number of points
+    private int[] table; // hash slots holding point numbers
+    private double[] xs; // x-coordinate of each point, by number
+    private double[] ys; // y-coordinate of each point, by number
+
+    // create an empty index
+    public PointIndex() {
+        this(16);
+    }
+
+    // create an empty index with room for about n points
+    public PointIndex(int n) {
+        resize(tableSize(n));
+        xs = new double[Math.max(n, 1)];
+        ys = new double[Math.max(n, 1)];
+    }
+
+    // index of the points (xs[i], ys[i]), numbered i; the arrays become
+    // part of the index and the hash table is only built if it is needed
+    public PointIndex(double[] xs, double[] ys) {
+        if (xs.length != ys.length) throw new RuntimeException("Coordinate arrays differ in length");
+        this.N = xs.length;
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    // number of distinct points
+    public int size() {
+        return N;
+    }
+
+    // number of point (x, y), or -1 if it has not been added
+    public int get(double x, double y) {
+        if (table == null) resize(tableSize(N));
+        int mask = table.length - 1;
+        for (int i = hash(x, y) & mask; table[i] != EMPTY; i = (i + 1) & mask) {
+            int id = table[i];
+            if (xs[id] == x && ys[id] == y) return id;
+        }
+        return EMPTY;
+    }
+
+    // number of point (x, y), adding it as the next number if new
+    public int put(double x, double y) {
+        if (table == null) resize(tableSize(N));
+        int mask = table.length - 1;
+        int i = hash(x, y) & mask;
+        for (; table[i] != EMPTY; i = (i + 1) & mask) {
+            int id = table[i];
+            if (xs[id] == x && ys[id] == y) return id;
+        }
+
+        if (N == xs.length) {
+            xs = Arrays.copyOf(xs, 2*N);
+            ys = Arrays.copyOf(ys, 2*N);
+        }
+        xs[N] = x;
+        ys[N] = y;
+        table[i] = N;
+        N++;
+
+        // keep the table at most half full
+        if (2*N > table.length) resize(2*table.length);
+        return N - 1;
+    }
+
+    // coordinates of point number id
+    public double x(int id) { return xs[id]; }
+    public double y(int id) { return ys[id]; }
+
+    // point number id as a Point
+    public Point point(int id) {
+        return new Point(xs[id], ys[id]);
+    }
+
+    // coordinates of all points by number, trimmed to size
+    public double[] xs() { return Arrays.copyOf(xs, N); }
+    public double[] ys() { return Arrays.copyOf(ys, N); }
+
+    // smallest power of two at least twice n
+    private static int tableSize(int n) {
+        int slots = 16;
+        while (slots < 2*n) slots *= 2;
+        return slots;
+    }
+
+    // rehash every point into a table with the given number of slots
+    private void resize(int slots) {
+        table = new int[slots];
+        Arrays.fill(table, EMPTY);
+        int mask = slots - 1;
+        for (int id = 0; id < N; id++) {
+            int i = hash(xs[id], ys[id]) & mask;
+            while (table[i] != EMPTY) i = (i + 1) & mask;
+            table[i] = id;
+        }
+    }
+
+    /*
+     * mixes the bit patterns of x and y; adding 0.0 first folds -0.0
+     * into 0.0 so that points equal under Point.compareTo hash alike
+     */
+    private static int hash(double x, double y) {
+        long h = Double.doubleToLongBits(x + 0.0) * 0x9E3779B97F4A7C15L;
+        h ^= Double.doubleToLongBits(y + 0.0);
+
+        // spread the high bits, where small coordinates differ, downward
+        h ^= (h >>> 33);
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= (h >>> 33);
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= (h >>> 33);
+        return (int) h;
+    }
+
+    // test client: number the endpoints of a road map's roads
+    public static void main(String[] args) {
+        In in = new In(args[0]);
+        in.readLine(); // skip the alert line
+        PointIndex index = new PointIndex();
+        int roads = 0;
+        while (!in.isEmpty()) {
+            String[] fields = in.readLine().trim().split("\\s+");
+            index.put(Double.parseDouble(fields[1]), Double.parseDouble(fields[2]));
+            index.put(Double.parseDouble(fields[3]), Double.parseDouble(fields[4]));
+            roads++;
+        }
+        StdOut.println(roads + " roads, " + index.size() + " intersections");
+        for (int id = 0; id < Math.min(index.size(), 10); id++)
+            StdOut.println(id + ": " + index.point(id));
+    }
+}
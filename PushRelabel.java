@@ -0,0 +1,380 @@
+/*************************************************************************
+ *  Compilation:  javac PushRelabel.java
+ *  Execution:    java PushRelabel V E [seed]
+ *  Dependencies: MaxFlow.java FlowNetwork.java FlowEdge.java
+ *                CompactFlowNetwork.java FordFulkerson.java StdOut.java
+ *
+ *  Highest-label push-relabel algorithm for computing a max flow and
+ *  a min cut (Goldberg and Tarjan; Cherkassky and Goldberg).
+ *
+ *  The first phase finds a maximum preflow: excess is pushed from
+ *  vertices toward t along residual arcs one label lower, always
+ *  discharging an active vertex of the highest label, and a vertex
+ *  with no such arc is relabelled one above its lowest residual
+ *  neighbour.  Two heuristics keep the labels exact: a global relabel,
+ *  run whenever relabelling has done about as much work as a
+ *  breadth-first search, resets every label to the vertex's residual
+ *  distance to t, and when relabelling empties a label, every vertex
+ *  above it is cut off from t and lifted out of the phase at once (the
+ *  gap heuristic).  The second phase returns the excess left over to
+ *  s, the same way, with labels measured from s.
+ *
+ *  Runs on a CompactFlowNetwork with all of its state in int and double
+ *  arrays; labels are kept in buckets, linked through arrays, so no
+ *  objects are allocated after construction.  A FlowNetwork is solved
+ *  on a compact copy, whose flows are then copied back.
+ *
+ *************************************************************************/
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public class PushRelabel implements MaxFlow {
+    private static final int ALPHA = 6; // global relabel after ALPHA*V + E work
+    private static final int BETA = 12; // work charged per relabel, plus degree
+
+    private final CompactFlowNetwork G;
+    private final int V;
+    private final int s;
+    private final int t;
+    private final double[] flow;    // flow[e] = flow on edge e, as it is pushed
+    private final double[] excess;  // excess[v] = inflow minus outflow of v
+    private final int[] height;     // height[v] = label of v
+    private final int[] current;    // current[v] = next of v's arcs to try
+    private final int[] activeFirst; // active vertices of label h, a stack
+    private final int[] activeNext;
+    private final int[] allFirst;   // all vertices of label h < V, in phase one
+    private final int[] allNext;
+    private final int[] allPrev;
+    private final int[] queue;      // breadth-first search queue
+    private int maxActive;          // no active vertex is labelled above this
+    private int maxHeight;          // no vertex in allFirst[] is labelled above this
+    private boolean firstPhase;
+    private long work;              // relabel work since the last global relabel
+    private boolean[] marked;       // marked[v] = true iff v is on the s side of the min cut
+    private double value;
+
+    // max flow in flow network G from s to t
+    public PushRelabel(FlowNetwork G, int s, int t) {
+        this(new CompactFlowNetwork(G), s, t);
+        FlowEdge[] edges = CompactFlowNetwork.edges(G);
+        for (int e = 0; e < edges.length; e++)
+            edges[e].setFlow(this.G.flow(e));
+    }
+
+    // max flow in compact flow network G from s to t, starting from the
+    // flow already on G, which must be feasible
+    public PushRelabel(CompactFlowNetwork G, int s, int t) {
+        if (s == t) {
+            throw new RuntimeException("Source equals sink");
+        }
+        this.G = G;
+        this.V = G.V();
+        this.s = s;
+        this.t = t;
+        flow = G.copyFlow(new double[G.E()]);
+        excess = new double[V];
+        height = new int[V];
+        current = new int[V];
+        activeFirst = new int[2*V + 1];
+        activeNext = new int[V];
+        allFirst = new int[V];
+        allNext = new int[V];
+        allPrev = new int[V];
+        queue = new int[V];
+
+        for (int e = 0; e < G.E(); e++) {
+            excess[G.from(e)] -= flow[e];
+            excess[G.to(e)] += flow[e];
+        }
+
+        // saturate every arc out of s
+        for (int k = 0; k < degree(s); k++) {
+            int e = edge(s, k);
+            double residual = residual(s, k, e);
+            if (residual > 0) {
+                int w = head(s, k, e);
+                if (k < G.outDegree(s)) flow[e] = G.capacity(e);
+                else                    flow[e] = 0.0;
+                excess[s] -= residual;
+                excess[w] += residual;
+            }
+        }
+
+        // phase one: maximum preflow
+        firstPhase = true;
+        globalRelabel();
+        run();
+
+        // phase two: return the excess that cannot reach t to s
+        firstPhase = false;
+        globalRelabel();
+        run();
+
+        for (int e = 0; e < G.E(); e++)
+            G.setFlow(e, flow[e]);
+        value = excess[t];
+        findCut();
+    }
+
+    // return value of max flow
+    public double value() {
+        return value;
+    }
+
+    // is v in the s side of the min cut?
+    public boolean inCut(int v) {
+        return marked[v];
+    }
+
+    // discharges active vertices, highest label first, until none is left
+    private void run() {
+        while (maxActive >= 0) {
+            int v = activeFirst[maxActive];
+            if (v == -1) {
+                maxActive--;
+                continue;
+            }
+            activeFirst[maxActive] = activeNext[v];
+            discharge(v);
+            if (work > (long) ALPHA*V + G.E()) globalRelabel();
+        }
+    }
+
+    /*
+     * arcs of v: for 0 <= k < outDegree(v), the forward arc along the
+     * k-th edge out of v, then the backward arcs along the edges into v
+     */
+    private int degree(int v) {
+        return G.outDegree(v) + G.inDegree(v);
+    }
+
+    private int edge(int v, int k) {
+        int outs = G.outDegree(v);
+        if (k < outs) return G.outEdge(G.outBegin(v) + k);
+        return G.inEdge(G.inBegin(v) + k - outs);
+    }
+
+    private int head(int v, int k, int e) {
+        return (k < G.outDegree(v)) ? G.to(e) : G.from(e);
+    }
+
+    private double residual(int v, int k, int e) {
+        return (k < G.outDegree(v)) ? G.capacity(e) - flow[e] : flow[e];
+    }
+
+    // pushes excess out of v until there is none or v must be relabelled
+    private void discharge(int v) {
+        int outs = G.outDegree(v);
+        int deg = degree(v);
+        while (true) {
+            int hv = height[v];
+            for (int k = current[v]; k < deg; k++) {
+                int e = edge(v, k);
+                double residual = (k < outs) ? G.capacity(e) - flow[e] : flow[e];
+                if (residual <= 0) continue;
+                int w = (k < outs) ? G.to(e) : G.from(e);
+                if (height[w] != hv - 1) continue;
+
+                // push, saturating the arc exactly if all of it is used
+                double delta = Math.min(excess[v], residual);
+                if (delta == residual) flow[e] = (k < outs) ? G.capacity(e) : 0.0;
+                else if (k < outs)     flow[e] += delta;
+                else                   flow[e] -= delta;
+                excess[v] -= delta;
+                if (excess[w] <= 0 && w != s && w != t) activate(w);
+                excess[w] += delta;
+                if (excess[v] <= 0) {
+                    current[v] = k;
+                    return;
+                }
+            }
+            if (!relabel(v)) return;
+        }
+    }
+
+    /*
+     * lifts v one above its lowest residual neighbour; returns false if
+     * that takes v out of the phase
+     */
+    private boolean relabel(int v) {
+        int old = height[v];
+        int limit = firstPhase ? V : 2*V;
+        int outs = G.outDegree(v);
+        int deg = degree(v);
+        int lowest = limit;
+        int arc = 0;
+        for (int k = 0; k < deg; k++) {
+            int e = edge(v, k);
+            double residual = (k < outs) ? G.capacity(e) - flow[e] : flow[e];
+            if (residual <= 0) continue;
+            int w = (k < outs) ? G.to(e) : G.from(e);
+            if (height[w] + 1 < lowest) {
+                lowest = height[w] + 1;
+                arc = k;
+            }
+        }
+        work += BETA + deg;
+
+        if (firstPhase) {
+            unlink(v);
+            if (allFirst[old] == -1) {
+                // v was the last of its label: nothing above it reaches t
+                gap(old);
+                height[v] = V;
+                return false;
+            }
+        }
+        height[v] = Math.min(lowest, limit);
+        current[v] = arc;
+        if (height[v] >= limit) return false;
+        if (firstPhase) link(v);
+        return true;
+    }
+
+    // lifts every vertex labelled above h out of the first phase
+    private void gap(int h) {
+        for (int g = h + 1; g <= maxHeight; g++) {
+            for (int u = allFirst[g]; u != -1; u = allNext[u])
+                height[u] = V;
+            allFirst[g] = -1;
+            activeFirst[g] = -1;
+        }
+        maxHeight = h - 1;
+        if (maxActive > maxHeight) maxActive = maxHeight;
+    }
+
+    /*
+     * sets every label to the residual distance to t in the first phase,
+     * or V plus the distance to s in the second, and rebuilds the buckets
+     */
+    private void globalRelabel() {
+        int root = firstPhase ? t : s;
+        int base = firstPhase ? 0 : V;
+        int unreached = firstPhase ? V : 2*V;
+        Arrays.fill(height, unreached);
+        Arrays.fill(activeFirst, -1);
+        Arrays.fill(allFirst, -1);
+        Arrays.fill(current, 0);
+        maxActive = -1;
+        maxHeight = -1;
+        work = 0;
+
+        // breadth-first search backward along residual arcs
+        int skip = firstPhase ? s : t; // never labelled by the search
+        int first = 0, last = 0;
+        height[root] = base;
+        queue[last++] = root;
+        while (first < last) {
+            int w = queue[first++];
+            int h = height[w] + 1;
+
+            // u -> w is residual if an edge u -> w has room, or an edge
+            // w -> u carries flow
+            for (int k = G.inBegin(w); k < G.inEnd(w); k++) {
+                int e = G.inEdge(k);
+                int u = G.from(e);
+                if (height[u] == unreached && u != skip && G.capacity(e) - flow[e] > 0) {
+                    height[u] = h;
+                    queue[last++] = u;
+                }
+            }
+            for (int k = G.outBegin(w); k < G.outEnd(w); k++) {
+                int e = G.outEdge(k);
+                int u = G.to(e);
+                if (height[u] == unreached && u != skip && flow[e] > 0) {
+                    height[u] = h;
+                    queue[last++] = u;
+                }
+            }
+        }
+        if (firstPhase) height[s] = V; // and t stays at 2V in the second
+
+        for (int k = 0; k < last; k++) {
+            int v = queue[k];
+            if (firstPhase && height[v] < V) link(v);
+            if (v != s && v != t && excess[v] > 0) activate(v);
+        }
+    }
+
+    // pushes v onto the stack of active vertices of its label
+    private void activate(int v) {
+        int h = height[v];
+        if (h >= (firstPhase ? V : 2*V)) return;
+        activeNext[v] = activeFirst[h];
+        activeFirst[h] = v;
+        if (h > maxActive) maxActive = h;
+    }
+
+    // adds v to, and removes v from, the list of vertices of its label
+    private void link(int v) {
+        int h = height[v];
+        allPrev[v] = -1;
+        allNext[v] = allFirst[h];
+        if (allFirst[h] != -1) allPrev[allFirst[h]] = v;
+        allFirst[h] = v;
+        if (h > maxHeight) maxHeight = h;
+    }
+
+    private void unlink(int v) {
+        int h = height[v];
+        if (allPrev[v] != -1) allNext[allPrev[v]] = allNext[v];
+        else                  allFirst[h] = allNext[v];
+        if (allNext[v] != -1) allPrev[allNext[v]] = allPrev[v];
+    }
+
+    // vertices reachable from s in the residual network
+    private void findCut() {
+        marked = new boolean[V];
+        int first = 0, last = 0;
+        marked[s] = true;
+        queue[last++] = s;
+        while (first < last) {
+            int v = queue[first++];
+            for (int k = G.outBegin(v); k < G.outEnd(v); k++) {
+                int e = G.outEdge(k);
+                int w = G.to(e);
+                if (!marked[w] && G.capacity(e) - flow[e] > 0) {
+                    marked[w] = true;
+                    queue[last++] = w;
+                }
+            }
+            for (int k = G.inBegin(v); k < G.inEnd(v); k++) {
+                int e = G.inEdge(k);
+                int w = G.from(e);
+                if (!marked[w] && flow[e] > 0) {
+                    marked[w] = true;
+                    queue[last++] = w;
+                }
+            }
+        }
+    }
+
+    // test client that creates a random network, solves it with both
+    // algorithms, and compares the results
+    public static void main(String[] args) {
+        int V = Integer.parseInt(args[0]);
+        int E = Integer.parseInt(args[1]);
+        int s = 0, t = V-1;
+        SplittableRandom random;
+        if (args.length > 2)
+            random = new SplittableRandom(Long.parseLong(args[2]));
+        else
+            random = new SplittableRandom();
+        FlowNetwork G = new FlowNetwork(V, E, random);
+        CompactFlowNetwork C = new CompactFlowNetwork(G);
+
+        long start = System.nanoTime();
+        MaxFlow ff = new FordFulkerson(new CompactFlowNetwork(C), s, t);
+        long middle = System.nanoTime();
+        MaxFlow pr = new PushRelabel(new CompactFlowNetwork(C), s, t);
+        long end = System.nanoTime();
+
+        int differ = 0;
+        for (int v = 0; v < V; v++)
+            if (ff.inCut(v) != pr.inCut(v)) differ++;
+        StdOut.printf("Ford-Fulkerson %f in %.1f ms, push-relabel %f in %.1f ms\n",
+                      ff.value(), (middle - start)*1e-6, pr.value(), (end - middle)*1e-6);
+        StdOut.println("Min cuts differ at " + differ + " vertices");
+    }
+}
@@ -0,0 +1,181 @@
+/* ResultsSink.java
+ * Compilation: javac ResultsSink.java
+ *
+ * Dependencies:
+ * Routes.java, RoundObserver.java
+ *
+ * Description: ResultsSink writes the rounds of any number of
+ * simulation runs to one CSV file (or stream), one row per round,
+ *
+ *     run,initPop,awareness,roadmap,megatons,seed,round,alive,dead,escaped,total,hazardRadius
+ *
+ * where run numbers the runs in the order they were started, and the
+ * next five columns are the run's parameters.  Each run collects its
+ * rows in a batch of its own, which it hands to the sink when it is
+ * closed, so the rows of a run are always together and runs on separate
+ * threads never wait on each other while they run.  Finished batches
+ * are queued; whichever thread finds the writer free writes out every
+ * batch queued so far, and a thread that finds it busy leaves its batch
+ * for that thread or a later one, so no run ever blocks on the file.
+ * The writer is buffered and only flushed when the sink is closed.
+ */
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class ResultsSink {
+    public static final String COLUMNS = "run,initPop,awareness,roadmap,megatons,seed,"
+                                         + "round,alive,dead,escaped,total,hazardRadius";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Writer writer;
+    private final boolean owned; // close the underlying stream too?
+    private final Queue<CharSequence> finished = new ConcurrentLinkedQueue<CharSequence>();
+    private final ReentrantLock writing = new ReentrantLock();
+    private final AtomicLong runs = new AtomicLong(); // runs started so far
+    private volatile IOException failure; // why writing stopped, if it has
+
+    // rows of one run, with its parameters
+    public static class Run implements RoundObserver {
+        private final ResultsSink sink;
+        private final long id;
+        private final String prefix; // run number and parameters, ending in a comma
+        private StringBuilder rows = new StringBuilder();
+
+        private Run(ResultsSink sink, long id, String prefix) {
+            this.sink = sink;
+            this.id = id;
+            this.prefix = prefix;
+        }
+
+        // number of this run
+        public long id() {
+            return id;
+        }
+
+        // adds the row for round, with the given tallies
+        public void row(int round, double alive, double dead, double escaped,
+                        double hazardRadius) {
+            if (rows == null) throw new RuntimeException("Run " + id + " is closed");
+            rows.append(prefix).append(round).append(',')
+                .append(alive).append(',').append(dead).append(',')
+                .append(escaped).append(',').append(alive + escaped + dead).append(',')
+                .append(hazardRadius).append('\n');
+        }
+
+        // adds the row for the round routes has just run
+        public void roundFinished(Routes routes, int round, double hazardRadius) {
+            row(round, routes.getAlive(), routes.getDead(), routes.getEscaped(), hazardRadius);
+        }
+
+        // adds the row for the round routes was settled by
+        public void settled(Routes routes, int round, double hazardRadius) {
+            row(round, routes.getAlive(), routes.getDead(), routes.getEscaped(), hazardRadius);
+        }
+
+        // hands this run's rows to the sink; no rows may be added after
+        public void close() {
+            if (rows == null) return;
+            sink.finish(rows);
+            rows = null;
+        }
+    }
+
+    // writes to the named file, replacing it
+    public ResultsSink(String filename) {
+        this(open(filename), true);
+    }
+
+    // writes to out, e.g. System.out, which close() flushes but leaves open
+    public ResultsSink(OutputStream out) {
+        this(out, false);
+    }
+
+    private ResultsSink(OutputStream out, boolean owned) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8),
+                                         BUFFER_SIZE);
+        this.owned = owned;
+        finished.add(COLUMNS + "\n");
+    }
+
+    private static OutputStream open(String filename) {
+        try {
+            return new FileOutputStream(filename);
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("Could not open " + filename, ioe);
+        }
+    }
+
+    /*
+     * starts a new run with the given parameters; the run may be used on
+     * any one thread, and its rows are written once it is closed
+     */
+    public Run run(int initPop, double awareness, String roadmap, double megatons, long seed) {
+        long id = runs.getAndIncrement();
+        String prefix = id + "," + initPop + "," + awareness + "," + quote(roadmap) + ","
+                        + megatons + "," + seed + ",";
+        return new Run(this, id, prefix);
+    }
+
+    // number of runs started so far
+    public long runs() {
+        return runs.get();
+    }
+
+    // writes every run closed so far and flushes the file, then closes
+    // it if this sink opened it
+    public void close() {
+        writing.lock();
+        try {
+            drain();
+            writer.flush();
+            if (owned) writer.close();
+        }
+        catch (IOException ioe) {
+            if (failure == null) failure = ioe;
+        }
+        finally {
+            writing.unlock();
+        }
+        if (failure != null) throw new RuntimeException("Could not write results", failure);
+    }
+
+    // queues a finished run's rows, and writes the queue if no other
+    // thread is writing it
+    private void finish(CharSequence rows) {
+        if (failure != null) throw new RuntimeException("Could not write results", failure);
+        finished.add(rows);
+        if (!writing.tryLock()) return;
+        try {
+            drain();
+        }
+        catch (IOException ioe) {
+            failure = ioe;
+        }
+        finally {
+            writing.unlock();
+        }
+    }
+
+    // writes out every queued batch; the caller holds the lock
+    private void drain() throws IOException {
+        for (CharSequence rows = finished.poll(); rows != null; rows = finished.poll())
+            writer.append(rows);
+    }
+
+    // s as a CSV field, quoted if it needs to be
+    private static String quote(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) return s;
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,221 @@
+/* RoadMap.java
+ * Compilation: javac RoadMap.java
+ *
+ * Dependencies:
+ * PointIndex.java, CompactFlowNetwork.java, RoadMapReader.java,
+ * RoadMapFile.java
+ *
+ * Description: RoadMap holds the static layout of a city that Routes
+ * simulates an evacuation over: the alert line of a road map file
+ * (map version, detonation point and drawing scale), the intersections,
+ * numbered in the order they are first seen, and one edge per road.
+ * Roads are added one at a time as they are read; the first call to
+ * network() freezes the map into a CompactFlowNetwork with zero flow,
+ * which every Routes built on this map then shares.  Freezing also
+ * measures every intersection's distance from the detonation and sorts
+ * the intersections by it, since the detonation never moves, and picks
+ * out each intersection's best road, the one leading farthest away.
+ */
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class RoadMap {
+    public static final int MULT = 6; // multiplier of input capacity to characterize roads
+
+    // alert line
+    private final int version; // map version
+    private final double detX; // x-coordinate of detonation
+    private final double detY; // y-coordinate of detonation
+    private final double scale; // scale for drawing
+
+    // intersections
+    private final PointIndex joints; // intersection numbers, by coordinates
+    private int maxJoint = -1; // greatest intersection in Point order
+
+    // roads, by edge id
+    private int E;
+    private int[] tails = new int[16];
+    private int[] heads = new int[16];
+    private double[] capacities = new double[16];
+    private double[] lengths = new double[16];
+
+    private CompactFlowNetwork network; // frozen road network, once built
+    private double[] detDists; // detDists[v] = distance of intersection v from detonation
+    private int[] byDetDist; // intersections in increasing order of detDists
+    private int[] bestOut; // bestOut[v] = rank of v's best road among its outgoing roads
+
+    // empty map with the given alert line
+    public RoadMap(int version, double detX, double detY, double scale) {
+        this.version = version;
+        this.detX = detX;
+        this.detY = detY;
+        this.scale = scale;
+        this.joints = new PointIndex();
+    }
+
+    // map that is already frozen, e.g. one loaded from a compiled file
+    public RoadMap(int version, double detX, double detY, double scale,
+                   PointIndex joints, int maxJoint,
+                   CompactFlowNetwork network, double[] lengths) {
+        if (network.V() != joints.size() + 2 || lengths.length != network.E())
+            throw new RuntimeException("network does not match intersections and roads");
+        this.version = version;
+        this.detX = detX;
+        this.detY = detY;
+        this.scale = scale;
+        this.joints = joints;
+        this.maxJoint = maxJoint;
+        this.E = network.E();
+        this.network = network;
+        this.lengths = lengths;
+        this.tails = null;
+        this.heads = null;
+        this.capacities = null;
+        measure();
+    }
+
+    /*
+     * reads a road map file, either a text map or one compiled by
+     * RoadMapFile
+     */
+    public static RoadMap load(String filename) {
+        if (RoadMapFile.isCompiled(filename))
+            return RoadMapFile.load(filename);
+        return RoadMapReader.read(filename);
+    }
+
+    /*
+     * adds a road from (fromX, fromY) to (toX, toY); orientation is true
+     * for a horizontal road and false for a vertical one
+     */
+    public void addRoad(boolean orientation, double fromX, double fromY,
+                        double toX, double toY, double width, double length) {
+        if (network != null) throw new RuntimeException("map is frozen");
+
+        // find or create the intersections at either end of the road
+        int from = intersection(fromX, fromY);
+        int to = intersection(toX, toY);
+
+        if (E == tails.length) {
+            tails = Arrays.copyOf(tails, 2*E);
+            heads = Arrays.copyOf(heads, 2*E);
+            capacities = Arrays.copyOf(capacities, 2*E);
+            lengths = Arrays.copyOf(lengths, 2*E);
+        }
+        tails[E] = from;
+        heads[E] = to;
+        capacities[E] = width*length*((double) MULT);
+        lengths[E] = length;
+        E++;
+    }
+
+    // number of the intersection at (x, y), creating it if not yet found
+    private int intersection(double x, double y) {
+        int id = joints.put(x, y);
+
+        // remember the greatest intersection, comparing y-coordinates
+        // and breaking ties by x-coordinates
+        if (maxJoint == -1 || y > joints.y(maxJoint)
+            || (y == joints.y(maxJoint) && x > joints.x(maxJoint)))
+            maxJoint = id;
+        return id;
+    }
+
+    /*
+     * road network with one vertex per intersection, plus two spare
+     * vertices for a virtual detonation source and safe-zone sink, and
+     * one edge per road, numbered in the order roads were added
+     */
+    public CompactFlowNetwork network() {
+        if (network == null) {
+            int V = joints.size() + 2;
+            network = new CompactFlowNetwork(V, E, Arrays.copyOf(tails, E),
+                                             Arrays.copyOf(heads, E),
+                                             Arrays.copyOf(capacities, E));
+            tails = null;
+            heads = null;
+            capacities = null;
+            lengths = Arrays.copyOf(lengths, E);
+            measure();
+        }
+        return network;
+    }
+
+    // distance of every intersection from the detonation, and the
+    // intersections sorted by it, nearest first
+    private void measure() {
+        int n = joints.size();
+        detDists = new double[n];
+        for (int v = 0; v < n; v++) {
+            double dx = detX - joints.x(v);
+            double dy = detY - joints.y(v);
+            detDists[v] = Math.sqrt(dx*dx + dy*dy);
+        }
+
+        Integer[] order = new Integer[n];
+        for (int v = 0; v < n; v++) order[v] = v;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer v, Integer w) {
+                return Double.compare(detDists[v], detDists[w]);
+            }
+        });
+        byDetDist = new int[n];
+        for (int k = 0; k < n; k++) byDetDist[k] = order[k];
+
+        // best road out of each intersection: the first one whose head is
+        // farthest from the detonation, or -1 if there is none
+        bestOut = new int[n];
+        for (int v = 0; v < n; v++) {
+            double bestDist = -1;
+            bestOut[v] = -1;
+            for (int k = network.outBegin(v); k < network.outEnd(v); k++) {
+                double dist = detDists[network.to(network.outEdge(k))];
+                if (dist > bestDist) {
+                    bestDist = dist;
+                    bestOut[v] = k - network.outBegin(v);
+                }
+            }
+        }
+    }
+
+    // accessor methods
+    public int version()           { return version;        }
+    public double detX()           { return detX;           }
+    public double detY()           { return detY;           }
+    public double scale()          { return scale;          }
+    public int intersections()     { return joints.size();  }
+    public int roads()             { return E;              }
+    public PointIndex joints()     { return joints;         }
+    public int maxJoint()          { return maxJoint;       }
+
+    /*
+     * distances of the intersections from the detonation, and the
+     * intersections sorted by distance, nearest first; both belong to
+     * the map and must not be modified
+     */
+    public double[] detDists() {
+        network();
+        return detDists;
+    }
+
+    public int[] byDetDist() {
+        network();
+        return byDetDist;
+    }
+
+    /*
+     * bestOut()[v] = j when the j-th road out of intersection v, that is
+     * network().outEdge(network().outBegin(v) + j), leads farthest from
+     * the detonation, or -1 if no road leaves v
+     */
+    public int[] bestOut() {
+        network();
+        return bestOut;
+    }
+
+    // length of road e
+    public double length(int e) {
+        return lengths[e];
+    }
+}
@@ -0,0 +1,162 @@
+/* RoadMapFile.java
+ * Compilation: javac RoadMapFile.java
+ * Execution: java RoadMapFile roadmap.txt roadmap.map
+ *
+ * Dependencies:
+ * RoadMap.java, RoadMapReader.java, CompactFlowNetwork.java,
+ * PointIndex.java, StdOut.java
+ *
+ * Description: RoadMapFile compiles a text road map into a binary file
+ * that loads without any parsing, and loads such files back into a
+ * RoadMap.  A compiled map holds, in order,
+ *
+ *     header      magic, format version, map version, intersections V,
+ *                 roads E, greatest intersection (6 ints), then
+ *                 detonation x, y and drawing scale (3 doubles)
+ *     doubles     intersection x- and y-coordinates (V each), road
+ *                 capacities and lengths (E each)
+ *     ints        road tails and heads (E each), outgoing ranges
+ *                 (V+3) and edges (E), incoming ranges (V+3) and edges (E)
+ *
+ * so that every double is 8-byte aligned.  Loading maps the
+ * file with FileChannel.map and bulk-copies each section into the
+ * network's arrays, so the edge ranges are never rebuilt.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class RoadMapFile {
+    private static final int MAGIC = 0x43455350; // "CESP"
+    private static final int FORMAT_VERSION = 3;
+    private static final int HEADER_BYTES = 6*4 + 3*8;
+
+    // does the named file start like a compiled road map?
+    public static boolean isCompiled(String filename) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) { }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+        catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    // writes map to the named file
+    public static void compile(RoadMap map, String filename) {
+        CompactFlowNetwork G = map.network();
+        PointIndex joints = map.joints();
+        int V = G.V();
+        int E = G.E();
+        long bytes = HEADER_BYTES + 8L*(2*joints.size() + 2*E)
+                   + 4L*(2*E + 2*(V+1) + 2*E);
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename),
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+
+            // header
+            buf.putInt(MAGIC);
+            buf.putInt(FORMAT_VERSION);
+            buf.putInt(map.version());
+            buf.putInt(joints.size());
+            buf.putInt(E);
+            buf.putInt(map.maxJoint());
+            buf.putDouble(map.detX());
+            buf.putDouble(map.detY());
+            buf.putDouble(map.scale());
+
+            // doubles
+            for (int v = 0; v < joints.size(); v++) buf.putDouble(joints.x(v));
+            for (int v = 0; v < joints.size(); v++) buf.putDouble(joints.y(v));
+            for (int e = 0; e < E; e++) buf.putDouble(G.capacity(e));
+            for (int e = 0; e < E; e++) buf.putDouble(map.length(e));
+
+            // ints
+            for (int e = 0; e < E; e++) buf.putInt(G.from(e));
+            for (int e = 0; e < E; e++) buf.putInt(G.to(e));
+            for (int v = 0; v < V; v++) buf.putInt(G.outBegin(v));
+            buf.putInt(E);
+            for (int k = 0; k < E; k++) buf.putInt(G.outEdge(k));
+            for (int v = 0; v < V; v++) buf.putInt(G.inBegin(v));
+            buf.putInt(E);
+            for (int k = 0; k < E; k++) buf.putInt(G.inEdge(k));
+            buf.force();
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("Could not write " + filename, ioe);
+        }
+    }
+
+    // reads the compiled road map in the named file
+    public static RoadMap load(String filename) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            // header
+            if (buf.getInt() != MAGIC)
+                throw new RuntimeException(filename + " is not a compiled road map");
+            int format = buf.getInt();
+            if (format != FORMAT_VERSION)
+                throw new RuntimeException(filename + " has format version " + format
+                                           + ", expected " + FORMAT_VERSION);
+            int mapVersion = buf.getInt();
+            int joints = buf.getInt();
+            int E = buf.getInt();
+            int maxJoint = buf.getInt();
+            double detX = buf.getDouble();
+            double detY = buf.getDouble();
+            double scale = buf.getDouble();
+            int V = joints + 2;
+
+            // doubles
+            double[] xs = new double[joints];
+            double[] ys = new double[joints];
+            double[] capacity = new double[E];
+            double[] lengths = new double[E];
+            buf.asDoubleBuffer().get(xs).get(ys).get(capacity).get(lengths);
+            buf.position(buf.position() + 8*(2*joints + 2*E));
+
+            // ints
+            int[] from = new int[E];
+            int[] to = new int[E];
+            int[] outStart = new int[V+1];
+            int[] outEdge = new int[E];
+            int[] inStart = new int[V+1];
+            int[] inEdge = new int[E];
+            buf.asIntBuffer().get(from).get(to).get(outStart).get(outEdge)
+                             .get(inStart).get(inEdge);
+
+            CompactFlowNetwork G = new CompactFlowNetwork(V, E, from, to, capacity,
+                                                          outStart, outEdge, inStart, inEdge);
+            return new RoadMap(mapVersion, detX, detY, scale,
+                               new PointIndex(xs, ys), maxJoint, G, lengths);
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("Could not open " + filename, ioe);
+        }
+    }
+
+    // compiles a text road map, then loads it back and reports timings
+    public static void main(String[] args) {
+        long start = System.nanoTime();
+        RoadMap map = RoadMapReader.read(args[0]);
+        long read = System.nanoTime();
+        compile(map, args[1]);
+        long compiled = System.nanoTime();
+        RoadMap loaded = load(args[1]);
+        long loadedAt = System.nanoTime();
+
+        StdOut.println(loaded.intersections() + " intersections, " + loaded.roads() + " roads");
+        StdOut.printf("parse %.1f ms, compile %.1f ms, load %.1f ms\n",
+                      (read - start)*1e-6, (compiled - read)*1e-6, (loadedAt - compiled)*1e-6);
+    }
+}
@@ -0,0 +1,271 @@
+/* RoadMapReader.java
+ * Compilation: javac RoadMapReader.java
+ * Execution: java RoadMapReader roadmap.txt
+ *
+ * Dependencies:
+ * RoadMap.java, StdOut.java
+ *
+ * Description: RoadMapReader streams a text road map file into a
+ * RoadMap.  The first line is the alert line
+ *
+ *     version detX detY scale
+ *
+ * and every following line is one road
+ *
+ *     orientation fromX fromY toX toY width length
+ *
+ * The file is read through a FileChannel into a reusable byte buffer
+ * and split into fields in place; numbers are parsed straight from the
+ * bytes, so no String is created per line or per field.  Decimals with
+ * at most 15 significant digits and a small exponent are converted
+ * exactly with one multiplication or division by a power of ten; any
+ * other number falls back on Double.parseDouble.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class RoadMapReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int EOF = -1;
+
+    // powers of ten that are exactly representable as doubles
+    private static final double[] POWERS = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final String filename;
+    private final ByteBuffer buffer;
+    private FileChannel channel;
+
+    private byte[] field = new byte[64]; // current field's bytes
+    private int fieldLength; // number of bytes in current field
+    private boolean endOfLine; // did the last field end its line?
+
+    private long lines; // non-blank lines read so far
+    private long newlines; // newlines read so far, to locate errors
+    private long nanos; // time spent reading
+
+    // reader for the road map in the named file
+    public RoadMapReader(String filename) {
+        this.filename = filename;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    // reads the road map in the named file
+    public static RoadMap read(String filename) {
+        return new RoadMapReader(filename).read();
+    }
+
+    // reads the whole file into a new RoadMap
+    public RoadMap read() {
+        long start = System.nanoTime();
+        try {
+            channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("Could not open " + filename, ioe);
+        }
+        try {
+            buffer.clear();
+            buffer.flip();
+            lines = 0;
+            newlines = 0;
+            endOfLine = false;
+
+            // alert line
+            if (!nextField()) throw new RuntimeException(filename + " is empty");
+            int version = parseInt();
+            double detX = nextDouble();
+            double detY = nextDouble();
+            double scale = nextDouble();
+            skipLine();
+            RoadMap map = new RoadMap(version, detX, detY, scale);
+
+            // one road per remaining line
+            while (nextField()) {
+                boolean orientation = parseBoolean();
+                double fromX = nextDouble();
+                double fromY = nextDouble();
+                double toX = nextDouble();
+                double toY = nextDouble();
+                double width = nextDouble();
+                double length = nextDouble();
+                skipLine();
+                map.addRoad(orientation, fromX, fromY, toX, toY, width, length);
+            }
+            return map;
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("Could not read " + filename, ioe);
+        }
+        finally {
+            try { channel.close(); }
+            catch (IOException ioe) { }
+            nanos = System.nanoTime() - start;
+        }
+    }
+
+    // number of lines read by the last call to read()
+    public long lines() {
+        return lines;
+    }
+
+    // reading rate of the last call to read()
+    public double linesPerSecond() {
+        return lines / (nanos * 1e-9);
+    }
+
+    // next byte of the file, or EOF
+    private int nextByte() throws IOException {
+        if (!buffer.hasRemaining()) {
+            buffer.clear();
+            int n;
+            do {
+                n = channel.read(buffer);
+            } while (n == 0);
+            buffer.flip();
+            if (n < 0) return EOF;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    /*
+     * reads the next field into field[], skipping blank lines in front
+     * of it; returns false at the end of the file
+     */
+    private boolean nextField() throws IOException {
+        int c = nextByte();
+        while (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+            if (c == '\n') newlines++;
+            c = nextByte();
+        }
+        if (c == EOF) return false;
+        lines++;
+        readField(c);
+        return true;
+    }
+
+    // reads the next field on the current line into field[]
+    private void nextFieldOnLine() throws IOException {
+        if (endOfLine) throw new RuntimeException(filename + ":" + (newlines + 1)
+                                                  + ": too few fields");
+        int c = nextByte();
+        while (c == ' ' || c == '\t' || c == '\r') c = nextByte();
+        if (c == '\n' || c == EOF) throw new RuntimeException(filename + ":" + (newlines + 1)
+                                                              + ": too few fields");
+        readField(c);
+    }
+
+    // reads a field starting with byte c, up to the next space
+    private void readField(int c) throws IOException {
+        fieldLength = 0;
+        while (c != ' ' && c != '\t' && c != '\r' && c != '\n' && c != EOF) {
+            if (fieldLength == field.length)
+                field = Arrays.copyOf(field, 2*fieldLength);
+            field[fieldLength++] = (byte) c;
+            c = nextByte();
+        }
+        endOfLine = (c == '\n' || c == EOF);
+        if (c == '\n') newlines++;
+    }
+
+    // ignores any remaining fields on the current line
+    private void skipLine() throws IOException {
+        if (endOfLine) return;
+        int c = nextByte();
+        while (c != '\n' && c != EOF) c = nextByte();
+        if (c == '\n') newlines++;
+        endOfLine = true;
+    }
+
+    private double nextDouble() throws IOException {
+        nextFieldOnLine();
+        return parseDouble();
+    }
+
+    // same as Boolean.parseBoolean: "true", ignoring case, or false
+    private boolean parseBoolean() {
+        if (fieldLength != 4) return false;
+        return (field[0] | 0x20) == 't' && (field[1] | 0x20) == 'r'
+            && (field[2] | 0x20) == 'u' && (field[3] | 0x20) == 'e';
+    }
+
+    private int parseInt() {
+        return Integer.parseInt(fieldString());
+    }
+
+    // parses field[] as a double
+    private double parseDouble() {
+        int i = 0;
+        boolean negative = false;
+        if (field[i] == '-' || field[i] == '+') {
+            negative = (field[i] == '-');
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0; // significant digits in mantissa
+        int exponent = 0; // power of ten to scale mantissa by
+        boolean any = false; // any digits at all?
+        for (; i < fieldLength && field[i] >= '0' && field[i] <= '9'; i++) {
+            any = true;
+            if (mantissa != 0 || field[i] != '0') digits++;
+            mantissa = 10*mantissa + (field[i] - '0');
+        }
+        if (i < fieldLength && field[i] == '.') {
+            for (i++; i < fieldLength && field[i] >= '0' && field[i] <= '9'; i++) {
+                any = true;
+                if (mantissa != 0 || field[i] != '0') digits++;
+                mantissa = 10*mantissa + (field[i] - '0');
+                exponent--;
+            }
+        }
+        if (any && i < fieldLength && (field[i] == 'e' || field[i] == 'E')) {
+            int j = i + 1;
+            boolean negativeExp = false;
+            if (j < fieldLength && (field[j] == '-' || field[j] == '+')) {
+                negativeExp = (field[j] == '-');
+                j++;
+            }
+            int exp = 0;
+            int expDigits = 0;
+            for (; j < fieldLength && field[j] >= '0' && field[j] <= '9' && expDigits < 4; j++) {
+                exp = 10*exp + (field[j] - '0');
+                expDigits++;
+            }
+            if (expDigits > 0) {
+                exponent += negativeExp ? -exp : exp;
+                i = j;
+            }
+        }
+
+        // exact fast path, or let the library deal with it
+        if (!any || i != fieldLength || digits > 15
+            || exponent < -22 || exponent > 22)
+            return Double.parseDouble(fieldString());
+        double value = (double) mantissa;
+        if (exponent < 0) value /= POWERS[-exponent];
+        else              value *= POWERS[exponent];
+        return negative ? -value : value;
+    }
+
+    private String fieldString() {
+        return new String(field, 0, fieldLength, StandardCharsets.US_ASCII);
+    }
+
+    // test client: read a road map and report how fast it was read
+    public static void main(String[] args) {
+        RoadMapReader reader = new RoadMapReader(args[0]);
+        RoadMap map = reader.read();
+        StdOut.println(map.intersections() + " intersections, " + map.roads() + " roads");
+        StdOut.printf("%d lines read at %.0f lines/sec\n",
+                      reader.lines(), reader.linesPerSecond());
+    }
+}
@@ -0,0 +1,21 @@
+/* RoundObserver.java
+ *
+ * Description: a RoundObserver is told about every round of a
+ * simulation once the round is over, e.g. to draw or record the roads.
+ * When a simulation's outcome is settled before its rounds run out,
+ * everyone left on the roads is killed at once and the rounds up to
+ * their death are skipped; the observer is told of that separately, as
+ * the simulation's settled outcome, not as another round.
+ * Simulations run without any observers never touch StdDraw or AWT.
+ * An observer runs on the simulation's thread and must not change the
+ * Routes it is shown.
+ */
+
+public interface RoundObserver {
+    // round has just been run on routes, with the given hazard radius
+    void roundFinished(Routes routes, int round, double hazardRadius);
+
+    // routes has been settled, skipping ahead to round, by which everyone
+    // left is dead, with the given hazard radius; ignored unless overridden
+    default void settled(Routes routes, int round, double hazardRadius) { }
+}
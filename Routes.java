@@ -2,8 +2,10 @@
  * Compilation: javac Routes.java
  * 
  * Dependencies:
- * In.java, FlowNetwork.java, ST.java, EdgeWeightedDigraph.java
- * Intersection.java, Explosion.java, drawExplosion.java, Point.java
+ * RoadMap.java, RoadMapReader.java, FlowNetwork.java,
+ * CompactFlowNetwork.java, Multinomial.java, ST.java,
+ * EdgeWeightedDigraph.java, PointIndex.java
+ * Intersection.java, Explosion.java, Point.java
  * 
  * Description: Routes.java shows the routes that a population can
  * travel along during an evacuation scenario.  The routes created
@@ -11,21 +13,47 @@
  * has edges which are characterized by travel capacity, length, and
  * bandwidth.  The vertices are nodes and are characterized by their
  * set of coordinates, which are each an intersection among roads.
- * To efficiently store intersections in a symbol table indexed by
- * coordinate-set keys, Point instances are made and the comparator
- * for the Point class is used to determine when items should be added
- * to or taken out of the symbol table.   
+ * To efficiently number intersections by their coordinates, they are
+ * kept in a PointIndex, a hash table keyed by coordinate pairs, which
+ * numbers them in the order they are first read from the map.
+ * Routes only models the evacuation; it draws nothing itself (see
+ * RoundObserver and StdDrawRenderer), so it runs without a display.
+ *
+ * Each round, every intersection with people on a road into it is
+ * updated once; the rest are never looked at, so a round costs time in
+ * proportion to the occupied roads, not the size of the map.  Such
+ * active intersections are kept as bit sets, marked whenever flow is
+ * written onto a road, and a road's flow is cleared as soon as its
+ * head has read it, so that flows never need clearing wholesale.  Dead
+ * and escaped intersections retire on their own: once they have taken
+ * in the flow on their roads, nothing marks them again.  Blocks with no
+ * active intersections are dropped from the round altogether, and the
+ * live flow is kept as a running count rather than summed over roads.
+ *
+ * The intersections, in the order the road map numbers them, are
+ * split into blocks of PARTITION consecutive intersections, each with
+ * its own random stream and tallies, so that blocks can be updated on
+ * separate threads (see setThreads and close).  While updating, a
+ * block writes next round's flows only on edges into its own
+ * intersections; flow it sends to another block waits in its outbox
+ * until every block is done, and is then delivered.  The same two
+ * phases run on one thread, so a seed gives the same results however
+ * many threads run the simulation.
  */
 
-import java.util.Random;
-import java.awt.Font.*;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.*;
 
 public class Routes {
     // Intersection data structures
-    ST<Point, Intersection> joints; // indexed by detonation distance  
-    ST<Point, Integer> index; // integer indices for digraph
-    ST<Integer, Point> reverseIndex;
+    PointIndex joints; // integer indices for digraph, by coordinates
+    private int maxJoint; // greatest intersection in Point order
     
     private int numIntersections;
     private int numEdges;
@@ -36,6 +64,76 @@ public class Routes {
 
     private EdgeWeightedDigraph evacGraph; // weighted graph of road network
     private FlowNetwork evacFlow; // desribes flow of people through routes
+
+    // tick engine: the road map's network in compressed sparse rows, with
+    // flows double-buffered so that nextState() never allocates; evacFlow
+    // is only built, and its edges synced, when it is asked for
+    private CompactFlowNetwork network; // road network indexed by edge id
+    private FlowEdge[] roads; // evacFlow's edges, indexed by edge id
+    private double[] nextFlow; // flow on each edge next round
+
+    // blocks of intersections: random numbers come from one seeded
+    // generator per simulation, split into an independent stream for
+    // every block, so a seed always reproduces the same run and no two
+    // blocks share state
+    private static final int PARTITION = 1024; // intersections per block
+    private SplittableRandom random; // source of this simulation's streams
+    private int[] blockOf; // blockOf[v] = block of intersection v
+    private Block[] blocks;
+
+    // active intersections, one bit each; PARTITION is a multiple of 64,
+    // so no word holds intersections of two blocks
+    private long[] active; // active this round
+    private long[] marked; // active next round, marked by their own block
+    private AtomicLongArray delivered; // marked by other blocks' deliveries
+    private boolean[] busyNext; // busyNext[b] = does block b have marks for next round?
+    private int[] busy; // busy[0..busyCount) = blocks with active intersections this round
+    private int busyCount;
+
+    // threads that update blocks, or null to update them all on this one
+    private ForkJoinPool pool;
+    private List<Callable<Void>> workers; // one per thread
+    private final AtomicInteger nextBlock = new AtomicInteger(); // next block to hand a worker
+    private boolean delivering; // is this the delivery phase of the round?
+    private boolean autoAwareness; // does each intersection draw its own awareness?
+    private double awarenessLevel; // awareness for the round, unless auto
+
+    /*
+     * a block of intersections, begin <= v < end, with all the
+     * state one thread needs to update it
+     */
+    private static class Block {
+        final int id;
+        final int begin;
+        final int end;
+        final SplittableRandom rand; // this block's random stream
+        final int[] outboxEdge; // edges to other blocks with flow waiting to go
+        final double[] outboxFlow; // outboxFlow[k] = flow waiting on outboxEdge[k]
+        int outboxSize;
+        final double[] distribution; // scratch space for update()
+        final double[] outflow; // scratch space for update()
+        double dead; // killed in this block this round
+        double escaped; // escaped in this block this round
+
+        Block(int id, int begin, int end, SplittableRandom rand, int maxOuts, int exits) {
+            this.id = id;
+            this.begin = begin;
+            this.end = end;
+            this.rand = rand;
+            this.outboxEdge = new int[exits];
+            this.outboxFlow = new double[exits];
+            this.distribution = new double[maxOuts];
+            this.outflow = new double[maxOuts];
+        }
+    }
+
+    /*
+     * how the initial population is spread over the roads: every road
+     * equally likely, roads weighted by capacity, or roads weighted by
+     * a density that falls off with distance from the detonation point
+     */
+    public enum Seeding { UNIFORM, CAPACITY, DENSITY }
+    private static final double DENSITY_FALLOFF = 3.0; // density at the farthest intersection is e^-3 of the center's
     
     // detonation information for method use
     private Explosion exp; // instance of detonation
@@ -44,156 +142,103 @@ public class Routes {
     private double detY; // y-coordinate of detonation
     private double scale; // scale for drawing
     private Point det; // location of detonation
-    private final int MULT = 6; // multiplier of input capacity to characterize roads
+
+    // hazard zones: the detonation never moves, so the map measures each
+    // intersection's distance from it once, and intersections are swept
+    // into the hazard zone in order of distance as the radius changes
+    public static final byte OPEN = 0; // neither dead nor escaped
+    public static final byte DEAD = 1; // within the hazard radius
+    public static final byte ESCAPED = 2; // past the hazard limit
+    private double[] detDists; // detDists[v] = distance of intersection v from detonation
+    private int[] byDetDist; // intersections, nearest to detonation first
+    private double hazardLimit; // distance past which intersections have escaped
+    private byte[] zone; // zone[v] = hazard zone of intersection v
+    private int swept; // byDetDist[0..swept) are within the hazard radius
+    private int[] bestOut; // bestOut[v] = rank among v's out edges of the one leading farthest away
     
     /*
-     * creates a graphical evacuation map
+     * creates a graphical evacuation map from a road map file, either
+     * text or compiled by RoadMapFile
      */
     public Routes(String filename, int initPop) 
     {
-        // GETTING TO ROUTES METHOD TESTED AND WORKS
-        
-        In in = new In(filename); // initialize source of input
-        String[] alert = in.readLine().trim().split("\\s+");
+        this(RoadMap.load(filename), initPop);
+    }
+
+    // same as above, with every random choice drawn from the given seed
+    public Routes(String filename, int initPop, long seed) 
+    {
+        this(RoadMap.load(filename), initPop, seed);
+    }
+
+    /*
+     * creates a graphical evacuation map over a road map that has
+     * already been read; maps may be shared between many Routes
+     */
+    public Routes(RoadMap map, int initPop) 
+    {
+        this(map, initPop, new SplittableRandom().nextLong());
+    }
+
+    // same as above, with every random choice drawn from the given seed
+    public Routes(RoadMap map, int initPop, long seed) 
+    {
+        this(map, initPop, seed, Seeding.UNIFORM);
+    }
+
+    // same as above, spreading the initial population as seeding says
+    public Routes(RoadMap map, int initPop, long seed, Seeding seeding) 
+    {
+        random = new SplittableRandom(seed);
         population = initPop;
         alive = population;
         dead = 0;
         escaped = 0;
-
-        // ALERT LINE TESTED AND WORKS
         
         // radius of hazard region and a location of detonation
         hazardRadius = 0;
-        int mapVersion = Integer.parseInt(alert[0]); // map version
-        detX = Double.parseDouble(alert[1]);
-        detY = Double.parseDouble(alert[2]);
-        scale = Double.parseDouble(alert[3]);
-        StdDraw.setScale(-scale, scale);
+        detX = map.detX();
+        detY = map.detY();
+        scale = map.scale();
         det = new Point(detX, detY);
         
-        // intersections indexed by coordinate's distance from detonation
-        joints = new ST<Point, Intersection>(); 
-        
-        // create indices for intersections
-        index = new ST<Point, Integer>();
-        reverseIndex = new ST<Integer, Point>();
-        
-        // reads input by road name, orientation (true is horizontal,
-        // false is vertical) with respect to the map,
-        // 'from-intersection' coordinates, 'to-intersection' 
-        // coordinates, road-width, and road-length
-        final int FIELDSIZE = 7;
-        String[] fields = new String[FIELDSIZE]; // holds input line
-        
-        // store information provided by input in arrays 
-        numIntersections = 0;
-        numEdges = 0;
-        
-        while (!in.isEmpty())
-        {
-            // split input by spaces seperating them & store values
-            fields = in.readLine().trim().split("\\s+");
-            
-            // name of street and whether or not it is horizontal
-            boolean orientation = Boolean.parseBoolean(fields[0]);
-            
-            // x and y coordinates for road's beginning and end
-            double fromX = Double.parseDouble(fields[1]);
-            double fromY = Double.parseDouble(fields[2]);
-            Point fromPoint = new Point(fromX, fromY);
-            double toX = Double.parseDouble(fields[3]);
-            double toY = Double.parseDouble(fields[4]);
-            Point toPoint = new Point(toX, toY);
-            
-            double roadWidth = Double.parseDouble(fields[5]);
-            double roadLength = Double.parseDouble(fields[6]);
-            double capacity = roadWidth*roadLength*((double) MULT);
+        // intersections numbered in the order they were first read
+        joints = map.joints();
+        maxJoint = map.maxJoint();
+        numIntersections = map.intersections();
+        numEdges = map.roads();
 
-            // add to, create or overwrite connection to intersections
-            double fromDist = detDist(fromPoint);
-            double toDist = detDist(toPoint);
-            
-            Intersection from;
-            // if 'from' intersection already found, initialize it as such
-            if (joints.contains(fromPoint)) {
-                from = joints.get(fromPoint);
-            }
-            // if 'from' intersection not yet found, create node for it
-            else {
-                from =
-                    new Intersection(null, null, null, null, fromPoint);
-                from.inEdges = new Queue<FlowEdge>();
-                from.outEdges = new Queue<FlowEdge>();
-                joints.put(fromPoint, from);
-                index.put(fromPoint, numIntersections);
-                reverseIndex.put(numIntersections, fromPoint);
-                
-                numIntersections++; // increment integer number index for new intersection
-            }
-            // if 'to' intersection already found, overwrite it
-            Intersection to;
-            if (joints.contains(toPoint)) {
-                to = joints.get(toPoint);
-            }
-            
-            // if 'to' intersection not yet found, create node for it
-            else {
-                to = new Intersection(null, null, null, null, toPoint);
-                to.inEdges = new Queue<FlowEdge>();
-                to.outEdges = new Queue<FlowEdge>();
-                joints.put(toPoint, to);
-                index.put(toPoint, numIntersections);
-                reverseIndex.put(numIntersections, toPoint);
-                numIntersections++; // increment integer number index for new intersection
-            }
-            
-            /*
-             * update intersection variables stored in joints ST
-             */   
-
-            // direction of road could be an input parameter in file
-            // if one way, only need to create one direction
-            
-            // create new edge to represent road read in
-            FlowEdge edge = new FlowEdge(index.get(fromPoint), index.get(toPoint), capacity);
-            
-            to.inEdges.enqueue(edge);
-            from.outEdges.enqueue(edge);
-           
-                     
-            /*
-             * update table of nodes to store road's existence between
-             * two intersections and add neighboring intersection nodes
-             */ 
-            
-            if ((fromX < toX) && orientation) { // join east and west
-                from.east = to;                  
-                to.west = from;                  
-            }   
-            if ((fromX > toX) && orientation) { // join east and west
-                from.west = to;
-                to.east = from;
-            }        
-            if ((fromY < toY) && !orientation) { // join north and south
-                from.north = to;
-                to.south = from;
-            }           
-            if ((fromY > toY) && !orientation) { // join north and south
-                from.south = to;
-                to.north = from;
-            }
-            
-            joints.put(toPoint, to);
-            joints.put(fromPoint, from);
-        }
-        this.buildNetwork(joints);
-        //this.evacFlow = new FlowNetwork(evacFlow);
-        this.populate(initPop);
+        // classify intersections by distance from the detonation
+        detDists = map.detDists();
+        byDetDist = map.byDetDist();
+        bestOut = map.bestOut();
+        hazardLimit = hazardLimit(map);
+        zone = new byte[numIntersections];
+        for (int v = 0; v < numIntersections; v++)
+            zone[v] = (detDists[v] > hazardLimit) ? ESCAPED : OPEN;
+        swept = 0;
+        sweep();
+        
+        this.buildNetwork(map.network());
+        this.populate(initPop, seeding, random.split());
+        this.buildBlocks();
     }
+
     // flownetwork accessor method
     public FlowNetwork getEvacFlow(){
+        syncFlows();
         return this.evacFlow;
     }
+
+    // the tick engine's road network, with this round's flows
+    public CompactFlowNetwork getNetwork() {
+        return this.network;
+    }
+
+    // the intersections' coordinates, by intersection number
+    public PointIndex getJoints() {
+        return this.joints;
+    }
     /*
      * build an edge weighted digraph from intersections in joints ST
      */ 
@@ -228,12 +273,11 @@ public class Routes {
     public double getPop() { return population; }
 
     // sums up the flow on the graph
+    // (flow is conserved, so this is everyone neither dead nor escaped;
+    //  with no intersection active, every road is empty)
     public double calculateLiveFlow() {
-        double aliveCounter = 0;
-        for (FlowEdge e : evacFlow.edges()) {
-            aliveCounter += e.flow();
-        }
-        return aliveCounter;
+        if (busyCount == 0) return 0.0;
+        return alive;
     }
 
     // helper method
@@ -241,106 +285,181 @@ public class Routes {
     {
         return new Point(0.5*(x1 + x2), 0.5*(y1 + y2));
     }
-    // draws intersections and roads, with thickness proportional to capacity
-    public void draw() {
-        //StdDraw.setScale(-10, 10);
-        StdDraw.clear(StdDraw.BLACK);
-        StdDraw.setPenColor(StdDraw.WHITE);
-        Point midpoint;
-        
-//        StdDraw.Font f = new Font("SansSerif", Font.PLAIN, 10);
-//        StdDraw.setFont(f);
-        for (int i = 0; i < reverseIndex.size(); i++) {
-            
-            StdDraw.setPenRadius(0.01);
-            
-            for (FlowEdge e : evacFlow.outgoing(i)) {
-                StdDraw.setPenColor(StdDraw.GRAY);
-                StdDraw.setPenRadius(e.capacity()*0.005);
-                StdDraw.line(reverseIndex.get(i).x(), reverseIndex.get(i).y(), reverseIndex.get(e.to()).x(), reverseIndex.get(e.to()).y());
-                StdDraw.setPenColor(StdDraw.WHITE);
-                StdDraw.setPenRadius(e.flow()*0.005);
-                StdDraw.line(reverseIndex.get(i).x(), reverseIndex.get(i).y(), reverseIndex.get(e.to()).x(), reverseIndex.get(e.to()).y());
-                String stats = e.flow() + " / " + e.capacity();
-                midpoint = midpoint(reverseIndex.get(i).x(), reverseIndex.get(i).y(), reverseIndex.get(e.to()).x(), reverseIndex.get(e.to()).y());
-                
-                StdDraw.text(midpoint.x(), midpoint.y(), stats);
+    /*
+     * give the tick engine its own flows over the map's frozen road
+     * network, sharing the map's edges
+     */ 
+    private void buildNetwork(CompactFlowNetwork roadMap) {
+        network = new CompactFlowNetwork(roadMap);
+        nextFlow = new double[numEdges];
+    }
+
+    /*
+     * cut the intersections into blocks of PARTITION, giving each block
+     * its own random stream and an outbox with room for every edge
+     * leaving it, then mark the heads of the populated roads active
+     */
+    private void buildBlocks() {
+        int maxOuts = 0;
+        for (int v = 0; v < network.V(); v++)
+            maxOuts = Math.max(maxOuts, network.outDegree(v));
+
+        int n = (numIntersections + PARTITION - 1) / PARTITION;
+        blocks = new Block[n];
+        blockOf = new int[numIntersections];
+        for (int v = 0; v < numIntersections; v++)
+            blockOf[v] = v / PARTITION;
+        for (int b = 0; b < n; b++) {
+            int begin = b*PARTITION;
+            int end = Math.min(numIntersections, begin + PARTITION);
+            int exits = 0;
+            for (int v = begin; v < end; v++)
+                for (int k = network.outBegin(v); k < network.outEnd(v); k++)
+                    if (blockOf[network.to(network.outEdge(k))] != b) exits++;
+            blocks[b] = new Block(b, begin, end, random.split(), maxOuts, exits);
+        }
+
+        active = new long[(numIntersections + 63) / 64];
+        marked = new long[active.length];
+        delivered = new AtomicLongArray(marked.length);
+        busyNext = new boolean[n];
+        busy = new int[n];
+        for (int e = 0; e < network.E(); e++)
+            if (network.flow(e) != 0) mark(network.to(e));
+        collectBusy();
+    }
+
+    // blocks with marks become this round's busy blocks, in block order
+    private void collectBusy() {
+        busyCount = 0;
+        for (int b = 0; b < blocks.length; b++) {
+            if (busyNext[b]) {
+                busy[busyCount++] = b;
+                busyNext[b] = false;
             }
-            StdDraw.setPenColor(StdDraw.WHITE);
-            StdDraw.point(reverseIndex.get(i).x(), reverseIndex.get(i).y());
         }
+    }
 
-        // draws update of hazard-radius with respect to detonation point    
-        StdDraw.setPenColor(StdDraw.WHITE);
-        StdDraw.setPenRadius(0.005);
-        StdDraw.point(0, 0);
+    // mark intersection v active next round, from v's own block
+    private void mark(int v) {
+        marked[v >>> 6] |= 1L << v;
+        busyNext[blockOf[v]] = true;
+    }
 
-        StdDraw.setPenRadius(0.0025);
-        StdDraw.circle(0, 0, hazardRadius);
-        StdDraw.show(300);
+    // mark intersection v active next round, from any block
+    private void markDelivered(int v) {
+        int w = v >>> 6;
+        long bit = 1L << v;
+        long old;
+        do {
+            old = delivered.get(w);
+            if ((old & bit) != 0) return;
+        } while (!delivered.compareAndSet(w, old, old | bit));
+
+        // every writer stores the same value, and the round's end orders
+        // all of them before the flag is read
+        busyNext[blockOf[v]] = true;
+    }
+
+    /*
+     * shut down the threads setThreads started, if any; blocks are
+     * updated on the calling thread from now on
+     */
+    public void close() {
+        if (pool != null) pool.shutdown();
+        pool = null;
+        workers = null;
     }
-              
+
+    /*
+     * update blocks on the given number of threads from now on; one
+     * thread, the default, updates them all on the calling thread
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) throw new RuntimeException("Need at least one thread");
+        close();
+        if (threads == 1) return;
+
+        pool = new ForkJoinPool(threads);
+        workers = new ArrayList<Callable<Void>>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Callable<Void>() {
+                public Void call() {
+                    int b;
+                    while ((b = nextBlock.getAndIncrement()) < busyCount)
+                        runBlock(blocks[busy[b]]);
+                    return null;
+                }
+            });
+        }
+    }
+
     /*
      * create flow network for evacuation directed away from
-     * detonation towards safe distance
+     * detonation towards safe distance, with one edge per road
      */ 
-    public FlowNetwork buildNetwork(ST<Point, Intersection> joints) {
+    private FlowNetwork buildEvacFlow() {
         
         // ****** not sure if we need to do the +2, but its kept until we figure out how to represent escape routes + source
         evacFlow = new FlowNetwork(numIntersections + 2);
         int detSource = numIntersections; // virtual detonation source
         int safeSink = numIntersections + 1; // virtual safe-zone sink
         
-        // copying symbol table to modify it *deep copy*
-        ST<Point, Intersection> j = new ST<Point, Intersection>();
-        
-        // ****** possible bug with not creating deep copy
-        for (Point p : joints.keys()) 
-            j.put(p, new Intersection(joints.get(p)));
-
-        for (Point p : j.keys()) {
-            // adds edges to graph by looking at intersections
-            // in a counterclockwise routine
-            
-            while (!j.get(p).inEdges.isEmpty()) {
-                evacFlow.addEdge(j.get(p).inEdges.dequeue());  
-            }
+        roads = new FlowEdge[numEdges];
+        for (int e = 0; e < numEdges; e++) {
+            roads[e] = new FlowEdge(network.from(e), network.to(e), network.capacity(e));
+            evacFlow.addEdge(roads[e]);
         }
-
-        // set explosion and standard draw window to illustrate full magnitude
-        //exp = new Explosion(5.0); // 5 megaton explosion initialized
-        StdDraw.setXscale(-5, 5);
-        StdDraw.setYscale(-5, 5);
-
         return evacFlow;
     }
     
     /*
-     * distribute pseudorandom flow across flow network
+     * distribute pseudorandom flow across flow network, drawing every
+     * edge's share of the population at once from a multinomial
+     * distribution, so that seeding costs time proportional to the
+     * number of edges however large the population
      * (as of now, no safety against going over-capacity in initial
      *  distribution of population)
      */
-    private void populate(int population) {
-        Random rand = new Random();
-        Iterable<FlowEdge> list = evacFlow.edges();
-        FlowEdge[] edgeArray = new FlowEdge[evacFlow.E()];
-        int i = 0;
-        for (FlowEdge e : list) {
-            edgeArray[i] = e;
-            i++;
+    private void populate(int population, Seeding seeding, SplittableRandom rand) {
+        int E = network.E();
+        double[] weights = new double[E];
+        if (seeding == Seeding.UNIFORM) {
+            Arrays.fill(weights, 1.0);
         }
-        
-        // add flow to edges until flow represents entire population
-        int added = 0;
-        while (added < population) {
-            // random int on domain [0, # of edges)
-            i = rand.nextInt(edgeArray.length);
-            
-            // pick an edge and increment its flow
-            edgeArray[i].addFlow(1);
-            added++;
+        else if (seeding == Seeding.CAPACITY) {
+            for (int e = 0; e < E; e++)
+                weights[e] = network.capacity(e);
+        }
+        else {
+            // density decays exponentially with the distance of a road's
+            // midpoint from the detonation, relative to the farthest
+            // intersection's
+            double farthest = (byDetDist.length > 0)
+                ? detDists[byDetDist[byDetDist.length - 1]] : 0.0;
+            for (int e = 0; e < E; e++) {
+                int from = network.from(e);
+                int to = network.to(e);
+                double dx = 0.5*(joints.x(from) + joints.x(to)) - detX;
+                double dy = 0.5*(joints.y(from) + joints.y(to)) - detY;
+                double dist = Math.sqrt(dx*dx + dy*dy);
+                weights[e] = (farthest > 0) ? Math.exp(-DENSITY_FALLOFF*dist/farthest) : 1.0;
+            }
         }
-        //StdOut.println("populate has added: " + added); // DEBUG
+
+        int[] counts = Multinomial.sample(rand, population, weights, new int[E]);
+        for (int e = 0; e < E; e++)
+            network.addFlow(e, counts[e]);
+    }
+
+    /*
+     * write the tick engine's flows back onto evacFlow's edges, building
+     * evacFlow first if need be
+     */
+    private void syncFlows() {
+        if (evacFlow == null) buildEvacFlow();
+        for (int e = 0; e < roads.length; e++)
+            roads[e].setFlow(network.flow(e));
     }
             
     /*
@@ -351,117 +470,255 @@ public class Routes {
             + (detY - p.y())*(detY - p.y());
         return Math.sqrt(distSq);
     }
+
+    // distance from detonation's center to intersection v
+    private double detDist(int v) {
+        return detDists[v];
+    }
     
     /*
      * probablility function for whether or not smart choice of direction
      * is made at each time step 
      */
     public double awareness(Point p) {
-        double rand = Math.random();
+        double rand = random.nextDouble();
         double desperation = 
             rand*hazardRadius/(hazardRadius + detDist(p));
         return desperation;
     }
 
+    // awareness at intersection v, drawn from its block's stream
+    private double awareness(int v, SplittableRandom random) {
+        double rand = random.nextDouble();
+        double desperation = 
+            rand*hazardRadius/(hazardRadius + detDist(v));
+        return desperation;
+    }
+
     /*
      * update road network by iteratively transfering population flow between roads
      */
     public void nextState() {
-        FlowNetwork nextFlow = new FlowNetwork(evacFlow);
-        for (int i = 0; i < joints.size(); i++) {
-            double awarenessLevel = awareness(reverseIndex.get(i));
-            update(i, nextFlow, awarenessLevel);
-        }
-        evacFlow = nextFlow;
+        autoAwareness = true;
+        nextRound();
     }
 
     // like nextState, but it takes a constant awarenessLevel as an argument
     public void nextState(double awarenessLevel) {
-        FlowNetwork nextFlow = new FlowNetwork(evacFlow);
-        for (int i = 0; i < joints.size(); i++) {
-            update(i, nextFlow, awarenessLevel);
+        autoAwareness = false;
+        this.awarenessLevel = awarenessLevel;
+        nextRound();
+    }
+
+    /*
+     * update every busy block, then deliver the flow sent between
+     * blocks, then add up the blocks' tallies in block order, so the
+     * sums never depend on which threads ran which blocks; idle blocks
+     * have nothing to add
+     */
+    private void nextRound() {
+        delivering = false;
+        runBlocks();
+        delivering = true;
+        runBlocks();
+
+        for (int i = 0; i < busyCount; i++) {
+            Block block = blocks[busy[i]];
+            dead += block.dead;
+            alive -= block.dead;
+            escaped += block.escaped;
+            alive -= block.escaped;
+            block.dead = 0;
+            block.escaped = 0;
+        }
+        collectBusy();
+        swapFlows();
+    }
+
+    // run this phase of the round on every busy block, on the pool if any
+    private void runBlocks() {
+        if (pool == null) {
+            for (int i = 0; i < busyCount; i++)
+                runBlock(blocks[busy[i]]);
+            return;
+        }
+        nextBlock.set(0);
+        try {
+            for (Future<Void> f : pool.invokeAll(workers))
+                f.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while updating", ie);
+        }
+        catch (ExecutionException ee) {
+            throw new RuntimeException("Block update failed", ee.getCause());
+        }
+    }
+
+    // run this phase of the round on one block
+    private void runBlock(Block block) {
+        if (delivering) {
+            // send the flow waiting in the outbox to the other blocks
+            for (int k = 0; k < block.outboxSize; k++) {
+                int e = block.outboxEdge[k];
+                nextFlow[e] += block.outboxFlow[k];
+                markDelivered(network.to(e));
+            }
+            block.outboxSize = 0;
+            return;
+        }
+
+        // take this round's marks off before any are made for the next,
+        // then update the active intersections in order
+        int first = block.begin >>> 6;
+        int words = (block.end + 63) >>> 6;
+        for (int w = first; w < words; w++) {
+            active[w] = marked[w] | delivered.get(w);
+            marked[w] = 0;
+            delivered.set(w, 0);
+        }
+        for (int w = first; w < words; w++) {
+            long bits = active[w];
+            while (bits != 0) {
+                int v = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                update(v, block);
+
+                // v has read its flows, so clear them for the round after next
+                for (int m = network.inBegin(v); m < network.inEnd(v); m++)
+                    network.setFlow(network.inEdge(m), 0.0);
+            }
+        }
+    }
+
+    /*
+     * greatest of values[v] over the intersections active next round,
+     * or Integer.MIN_VALUE if there are none
+     */
+    public int maxActive(int[] values) {
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < busyCount; i++) {
+            Block block = blocks[busy[i]];
+            int words = (block.end + 63) >>> 6;
+            for (int w = block.begin >>> 6; w < words; w++) {
+                long bits = marked[w] | delivered.get(w);
+                while (bits != 0) {
+                    int v = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    max = Math.max(max, values[v]);
+                }
+            }
         }
-        evacFlow = nextFlow;
+        return max;
+    }
+
+    /*
+     * everyone still on the roads dies at once; for when they could not
+     * escape anyway
+     */
+    public void killRemaining() {
+        for (int i = 0; i < busyCount; i++) {
+            Block block = blocks[busy[i]];
+            int words = (block.end + 63) >>> 6;
+            for (int w = block.begin >>> 6; w < words; w++) {
+                long bits = marked[w] | delivered.get(w);
+                marked[w] = 0;
+                delivered.set(w, 0);
+                while (bits != 0) {
+                    int v = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    for (int m = network.inBegin(v); m < network.inEnd(v); m++)
+                        network.setFlow(network.inEdge(m), 0.0);
+                }
+            }
+        }
+        busyCount = 0;
+        dead += alive;
+        alive = 0;
+    }
+
+    // next round's flows become this round's
+    private void swapFlows() {
+        nextFlow = network.swapFlow(nextFlow);
     }
 
     
     /*
-     * updates flow incident of a single intersection
+     * updates flow incident of a single intersection in the given block,
+     * reading this round's flows and writing next round's, and marking
+     * the intersections they lead to; flow bound for another block is
+     * left in the block's outbox
      */
-    public void update(int i, FlowNetwork f, double awarenessLevel) {
+    private void update(int i, Block block) {
         double inFlow = 0;
         double totalInflow = 0;
-        int outs = 0; // out edge count
+        int inBegin = network.inBegin(i);
+        int inEnd = network.inEnd(i);
+        int outBegin = network.outBegin(i);
+        int outs = network.outDegree(i); // out edge count
         boolean isDead = false;
         boolean isEscaped = false;
         
         double tempdead = 0;
         double tempescaped = 0;
+        SplittableRandom rand = block.rand;
+        double[] distribution = block.distribution;
+        double[] outflow = block.outflow;
 
-        // count outgoing edges
-        for (FlowEdge to : f.outgoing(i)) {
-            outs++;
-        }
-
-        if (detDist(reverseIndex.get(i)) <= hazardRadius)
+        if (zone[i] == DEAD)
             isDead = true;
-        if (detDist(reverseIndex.get(i)) > hazardLimit())
+        else if (zone[i] == ESCAPED)
             isEscaped = true;
         
         // sum inflow
-        Iterator<FlowEdge> iter1 = evacFlow.incoming(i).iterator();
-        Iterator<FlowEdge> iter2 = f.incoming(i).iterator();
-        while (iter1.hasNext()) {
-            FlowEdge oldEdge = iter1.next();
-            FlowEdge newEdge = iter2.next();
+        for (int k = inBegin; k < inEnd; k++) {
+            int e = network.inEdge(k);
+            double flow = network.flow(e);
+            double capacity = network.capacity(e);
                      
             // put excess flow back onto the incoming edges
-            if (oldEdge.flow() <= oldEdge.capacity() || isDead) {
-                inFlow += oldEdge.flow();
+            if (flow <= capacity || isDead) {
+                inFlow += flow;
             }
             else {
-                inFlow += oldEdge.capacity();
-                newEdge.addFlow(oldEdge.flow() - oldEdge.capacity());;
+                inFlow += capacity;
+                nextFlow[e] += flow - capacity;
+                mark(i);
             }
-            totalInflow += oldEdge.flow();
+            totalInflow += flow;
         }
         
         if (isDead) {
             tempdead += totalInflow;
-            dead += tempdead;
-            alive -= tempdead;
+            block.dead += tempdead;
             return;
         }
 
         if (isEscaped) {
-            escaped += inFlow;
-            alive -= inFlow;
+            block.escaped += inFlow;
             return;
         }
 
         if (totalInflow == 0)
             return;
+
+        double awarenessLevel;
+        if (autoAwareness)
+            awarenessLevel = awareness(i, rand);
+        else
+            awarenessLevel = this.awarenessLevel;
         
         double distr; //distribution
         double sum = 0;
 
-        // find the "best" edge
-        int counter = 0;
-        double bestDist = -100;
-        int bestIndex = -1;
-        for (FlowEdge fe : f.outgoing(i)) {
-            double dist = detDist(reverseIndex.get(fe.to()));
-            if (dist > bestDist) {
-                bestDist = dist;
-                bestIndex = counter;
-            }
-            counter++;
-        }
+        // the "best" edge, found when the map was frozen
+        int bestIndex = bestOut[i];
 
         // calculate the proportion of flow going to each outgoing edge
-        double[] distribution = new double[outs];
+        Arrays.fill(distribution, 0, outs, 0.0);
         for (int j = 0; j < outs; j++) {
-            distr = Math.random();
+            distr = rand.nextDouble();
 
             // we use awareness to calculate the chance that drivers going to a
             // 'worse' edge will instead choose to go to the 'best' edge
@@ -474,7 +731,6 @@ public class Routes {
         }
 
         // calculate how much flow goes to each edge out
-        double[] outflow = new double[outs];
         double outflowSum = 0;
         for (int j = 0; j < outs; j++) {
             outflow[j] = Math.floor(inFlow * (distribution[j] / sum));
@@ -484,27 +740,32 @@ public class Routes {
             outflow[0] += (inFlow - outflowSum);
         else if (outs == 0) {
             // send flow back the way it came, if there are no outgoing paths
-            Iterator<FlowEdge> itr1 = evacFlow.incoming(i).iterator();
-            Iterator<FlowEdge> itr2 = f.incoming(i).iterator();
-            while (itr2.hasNext()) {
-                FlowEdge oldEdge = itr1.next();
-                FlowEdge newEdge = itr2.next();
-                if (oldEdge.flow() <= oldEdge.capacity())
-                    newEdge.addFlow(oldEdge.flow());
+            for (int k = inBegin; k < inEnd; k++) {
+                int e = network.inEdge(k);
+                if (network.flow(e) <= network.capacity(e))
+                    nextFlow[e] += network.flow(e);
                 else
-                    newEdge.addFlow(oldEdge.capacity());
+                    nextFlow[e] += network.capacity(e);
             }
+            mark(i);
             return;
         }
 
         // model random traffic
-        counter = 0;
-        for (FlowEdge to : f.outgoing(i)) {
-            to.addFlow(outflow[counter]);
-            counter++;
+        for (int j = 0; j < outs; j++) {
+            if (outflow[j] == 0) continue;
+            int e = network.outEdge(outBegin + j);
+            int to = network.to(e);
+            if (blockOf[to] == block.id) {
+                nextFlow[e] += outflow[j];
+                mark(to);
+            }
+            else {
+                block.outboxEdge[block.outboxSize] = e;
+                block.outboxFlow[block.outboxSize] = outflow[j];
+                block.outboxSize++;
+            }
         }
- 
-        // TODO - awareness
     }
     
     /*
@@ -535,23 +796,61 @@ public class Routes {
      * assuming detonation's effects only come into play for max flow
      */
     public FlowNetwork roadNetwork() {
-        if (evacFlow == null) throw new RuntimeException("no network");
+        if (network == null) throw new RuntimeException("no network");
+        syncFlows();
         return evacFlow;
     }
     // accessor method for scale
     public double getScale() {
         return scale;
     }
+
+    // copies the hazard zone of every intersection, OPEN, DEAD or
+    // ESCAPED, into into[], which it returns
+    public byte[] copyZones(byte[] into) {
+        if (into.length != zone.length) throw new RuntimeException("Wrong number of zones");
+        System.arraycopy(zone, 0, into, 0, zone.length);
+        return into;
+    }
+    // hazard radius of the current round
+    public double getHazardRadius() {
+        return hazardRadius;
+    }
+
     // set's hazard radius
     public void setHazardRadius(double r) {
         this.hazardRadius = r;
+        sweep();
+    }
+
+    /*
+     * moves intersections into or out of the hazard zone, nearest first,
+     * until exactly those within the hazard radius are dead; as the
+     * radius only grows, each intersection is swept once per run
+     */
+    private void sweep() {
+        while (swept < byDetDist.length && detDists[byDetDist[swept]] <= hazardRadius) {
+            zone[byDetDist[swept]] = DEAD;
+            swept++;
+        }
+        while (swept > 0 && detDists[byDetDist[swept-1]] > hazardRadius) {
+            swept--;
+            int v = byDetDist[swept];
+            zone[v] = (detDists[v] > hazardLimit) ? ESCAPED : OPEN;
+        }
     }
     
     /*
      * hazard never goes past 2/3's distance of farthest intersection
      */
     public double hazardLimit() {
-        return detDist(joints.max()) * (0.67) ;
+        return hazardLimit;
+    }
+
+    // hazard limit of any simulation on map
+    public static double hazardLimit(RoadMap map) {
+        if (map.maxJoint() < 0) return 0;
+        return map.detDists()[map.maxJoint()] * (0.67);
     }
     
     /* 
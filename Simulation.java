@@ -1,13 +1,20 @@
+import java.awt.GraphicsEnvironment;
+import java.util.SplittableRandom;
+
 /* Runs the simulation of a city's traffic after the detonation
    of a bomb */
 public class Simulation {
     private static final int MAX_ROUNDS = 100; // max simulation length
 
     // runs a simulation taking a roadmap file, an initial bomb energy (in megatons),
-    //     and an initial population as command-line arguments
+    //     an initial population and, optionally, a random seed, a way of
+    //     seeding the population (uniform, capacity or density), a number of
+    //     threads and a CSV file to write the rounds to (standard output by
+    //     default) as command-line arguments; runs with the same seed print
+    //     the same results, however many threads they use
     //
     // Usage Example:
-    // java Simulation initPop awareness roadmap.txt megatons
+    // java Simulation initPop awareness roadmap.txt megatons [seed [seeding [threads [results.csv]]]]
     public static void main(String[] args) {
         int initPop;
         if (args.length > 0)
@@ -35,52 +42,141 @@ public class Simulation {
         else
             kinetic = 5.0;
 
+        // seed for every random choice; default to a fresh one
+        long seed;
+        if (args.length > 4)
+            seed = Long.parseLong(args[4]);
+        else
+            seed = new SplittableRandom().nextLong();
+
+        // how to spread the population over the roads; default to uniform
+        Routes.Seeding seeding;
+        if (args.length > 5)
+            seeding = seeding(args[5]);
+        else
+            seeding = Routes.Seeding.UNIFORM;
+
+        // threads to update the roads on; default to one
+        int threads;
+        if (args.length > 6)
+            threads = Integer.parseInt(args[6]);
+        else
+            threads = 1;
+
+        // where to write the rounds' results; default to standard output
+        ResultsSink results;
+        if (args.length > 7)
+            results = new ResultsSink(args[7]);
+        else
+            results = new ResultsSink(System.out);
+        ResultsSink.Run run = results.run(initPop, awareness, filename, kinetic, seed);
+
         // set up a new road system/flow network
-        Routes routes = new Routes(filename, initPop);
-        StdDraw.setScale(-1.0*routes.getScale(), routes.getScale());
+        RoadMap map = RoadMap.load(filename);
+        Routes routes = new Routes(map, initPop, seed, seeding);
+        routes.setThreads(threads);
+
+        // draw each round on a thread of its own, skipping rounds when
+        // drawing falls behind, unless there is no display to draw on (run
+        // with -Djava.awt.headless=true to skip drawing anyway); roads too
+        // small to see are drawn as a heatmap
+        AsyncRenderer renderer = null;
+        if (!GraphicsEnvironment.isHeadless())
+            renderer = new AsyncRenderer(new LodRenderer(routes.getScale(), 512, 300), 2);
         // create the explosion
         Explosion expl = new Explosion(kinetic); // 25 megaton bomb
+        Termination term = new Termination(map, expl, MAX_ROUNDS);
+
+        // run the simulation, drawing every round and writing its row
+        runRounds(routes, expl, term, awareness, renderer, run);
+        routes.close();
+        run.close();
+        results.close();
 
-        // run the simulation
+        // finish drawing the rounds still waiting
+        if (renderer != null)
+            renderer.close();
+    }
+
+    // termination test for simulations of map with a bomb of the given
+    //     energy, in megatons; it may be shared between simulations
+    public static Termination termination(RoadMap map, double kinetic) {
+        return new Termination(map, new Explosion(kinetic), MAX_ROUNDS);
+    }
+
+    // runs one scenario on a road map without drawing or printing and
+    //     returns the final state of the roads
+    public static Routes simulate(RoadMap map, int initPop, double awareness, double kinetic,
+                                  long seed) {
+        return simulate(map, initPop, awareness, kinetic, seed, Routes.Seeding.UNIFORM);
+    }
+
+    // same as above, spreading the population as seeding says
+    public static Routes simulate(RoadMap map, int initPop, double awareness, double kinetic,
+                                  long seed, Routes.Seeding seeding) {
+        return simulate(map, termination(map, kinetic), initPop, awareness, kinetic,
+                        seed, seeding);
+    }
+
+    // same as above, with a termination test made by termination(map, kinetic)
+    public static Routes simulate(RoadMap map, Termination term, int initPop,
+                                  double awareness, double kinetic,
+                                  long seed, Routes.Seeding seeding) {
+        return simulate(map, term, initPop, awareness, kinetic, seed, seeding, null);
+    }
+
+    // same as above, showing every round to observer unless it is null
+    public static Routes simulate(RoadMap map, Termination term, int initPop,
+                                  double awareness, double kinetic,
+                                  long seed, Routes.Seeding seeding,
+                                  RoundObserver observer) {
+        Routes routes = new Routes(map, initPop, seed, seeding);
+        runRounds(routes, new Explosion(kinetic), term, awareness, observer);
+        return routes;
+    }
+
+    /*
+     * runs routes under expl until term finds its outcome settled or the
+     * rounds run out, drawing awareness at every intersection if it is -1;
+     * every round run is shown to each observer that is not null, in
+     * order, and if settling kills people still on the roads, each is
+     * then told, through settled(), the round they are all dead by
+     */
+    private static void runRounds(Routes routes, Explosion expl, Termination term,
+                                  double awareness, RoundObserver... observers) {
         for (int i = 0; i < MAX_ROUNDS; i++) {
             // find the new hazard radius
             double hazardRadius = expl.getRadius(i);
             // update the hazard radius in Routes
             routes.setHazardRadius(hazardRadius);
-           
+
             if (awareness == -1)
                 routes.nextState();
             else
                 routes.nextState(awareness);
 
-            // visualize results?
-            routes.draw();
-            StdDraw.show(300);
-
-            // keep a killed/escaped tally?
-            double remainingFlow = routes.calculateLiveFlow();
-            double alive = routes.getAlive();
-            double escaped = routes.getEscaped();
-            double dead = routes.getDead();
-            double pop = routes.getPop();
-            double total = alive+escaped+dead;
-
-            // standardized output
-            StdOut.println(i + "," + alive + "," + dead + "," + escaped + "," + total + "," + hazardRadius);
-            //StdOut.println(escaped);
-
-            /* verbose output
-            StdOut.println("round " + i);
-            StdOut.println("Live Flow: " + remainingFlow);
-            StdOut.println("Alive:     " + alive);
-            StdOut.println("Dead:      " + dead);
-            StdOut.println("Escaped:   " + escaped);
-            StdOut.println("Total:     " + total + '\n');*/
-            
-            // stop if everyone is dead/escaped
-            if (remainingFlow <= 0) {
-                break;
+            for (RoundObserver observer : observers)
+                if (observer != null) observer.roundFinished(routes, i, hazardRadius);
+
+            // stop if everyone is dead/escaped, or if nobody left can
+            // escape; then skip ahead to the round they are all dead by
+            if (term.isSettled(routes, i+1)) {
+                int last = term.finish(routes);
+                if (last >= 0) {
+                    last = Math.max(last, i+1);
+                    for (RoundObserver observer : observers)
+                        if (observer != null) observer.settled(routes, last, expl.getRadius(last));
+                }
+                return;
             }
         }
     }
+
+    // the seeding named by a command-line argument, ignoring case
+    public static Routes.Seeding seeding(String name) {
+        for (Routes.Seeding s : Routes.Seeding.values())
+            if (s.name().equalsIgnoreCase(name)) return s;
+        throw new RuntimeException("Unknown seeding " + name
+                                   + ", expected uniform, capacity or density");
+    }
 }
@@ -658,6 +658,24 @@ public final class StdDraw implements ActionListener, MouseListener, MouseMotion
         draw();
     }
 
+    /**
+     * Draw an image already in memory centered on (x, y).
+     * @param x the center x-coordinate of the image
+     * @param y the center y-coordinate of the image
+     * @param image the image, e.g., one drawn off-screen
+     * @throws RuntimeException if the image has no size yet
+     */
+    public static void picture(double x, double y, Image image) {
+        double xs = scaleX(x);
+        double ys = scaleY(y);
+        int ws = image.getWidth(null);
+        int hs = image.getHeight(null);
+        if (ws < 0 || hs < 0) throw new RuntimeException("image is not loaded");
+
+        offscreen.drawImage(image, (int) Math.round(xs - ws/2.0), (int) Math.round(ys - hs/2.0), null);
+        draw();
+    }
+
     /**
      * Draw picture (gif, jpg, or png) centered on (x, y),
      * rotated given number of degrees
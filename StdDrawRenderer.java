@@ -0,0 +1,70 @@
+/* StdDrawRenderer.java
+ * Compilation: javac StdDrawRenderer.java
+ *
+ * Dependencies:
+ * Routes.java, RoundObserver.java, FrameRenderer.java,
+ * CompactFlowNetwork.java, PointIndex.java, StdDraw.java
+ *
+ * Description: StdDrawRenderer draws each round of a simulation with
+ * StdDraw: every road in gray, as thick as its capacity, under a white
+ * line as thick as its flow and a flow / capacity label, then the
+ * hazard radius.  Creating one opens the StdDraw window.  As a
+ * RoundObserver it draws on the simulation's thread; wrap it in an
+ * AsyncRenderer to draw on a thread of its own.
+ */
+
+public class StdDrawRenderer implements RoundObserver, FrameRenderer {
+    private final int pause; // milliseconds to show each round for
+    private double[] flow; // this round's flows, when drawing as an observer
+
+    // renders into a StdDraw window scaled to [-scale, scale], pausing
+    // after every round
+    public StdDrawRenderer(double scale, int pause) {
+        this.pause = pause;
+        StdDraw.setScale(-1.0*scale, scale);
+    }
+
+    // draws the round routes has just run
+    public void roundFinished(Routes routes, int round, double hazardRadius) {
+        CompactFlowNetwork network = routes.getNetwork();
+        if (flow == null || flow.length != network.E())
+            flow = new double[network.E()];
+        draw(network, routes.getJoints(), network.copyFlow(flow), round, hazardRadius);
+    }
+
+    // draws intersections and roads, with thickness proportional to capacity
+    public void draw(CompactFlowNetwork network, PointIndex joints, double[] flow,
+                     int round, double hazardRadius) {
+        StdDraw.clear(StdDraw.BLACK);
+        StdDraw.setPenColor(StdDraw.WHITE);
+        for (int i = 0; i < joints.size(); i++) {
+
+            StdDraw.setPenRadius(0.01);
+
+            for (int k = network.outBegin(i); k < network.outEnd(i); k++) {
+                int e = network.outEdge(k);
+                int to = network.to(e);
+                StdDraw.setPenColor(StdDraw.GRAY);
+                StdDraw.setPenRadius(network.capacity(e)*0.005);
+                StdDraw.line(joints.x(i), joints.y(i), joints.x(to), joints.y(to));
+                StdDraw.setPenColor(StdDraw.WHITE);
+                StdDraw.setPenRadius(flow[e]*0.005);
+                StdDraw.line(joints.x(i), joints.y(i), joints.x(to), joints.y(to));
+                String stats = flow[e] + " / " + network.capacity(e);
+                StdDraw.text(0.5*(joints.x(i) + joints.x(to)), 0.5*(joints.y(i) + joints.y(to)),
+                             stats);
+            }
+            StdDraw.setPenColor(StdDraw.WHITE);
+            StdDraw.point(joints.x(i), joints.y(i));
+        }
+
+        // draws update of hazard-radius with respect to detonation point
+        StdDraw.setPenColor(StdDraw.WHITE);
+        StdDraw.setPenRadius(0.005);
+        StdDraw.point(0, 0);
+
+        StdDraw.setPenRadius(0.0025);
+        StdDraw.circle(0, 0, hazardRadius);
+        StdDraw.show(pause);
+    }
+}
@@ -0,0 +1,156 @@
+/* Termination.java
+ * Compilation: javac Termination.java
+ *
+ * Dependencies:
+ * RoadMap.java, Explosion.java, Routes.java, CompactFlowNetwork.java
+ *
+ * Description: Termination decides when the outcome of a simulation is
+ * already settled, so that the rounds left need not be run.  Because
+ * the detonation never moves and the explosion's radius only grows, the
+ * round at which each intersection dies is known in advance.  From it,
+ * Termination works out, for every intersection, the latest round at
+ * which people there could still reach an escaped intersection alive,
+ * moving one road per round:
+ *
+ *     latest[v] = die[v] - 1                           v escaped
+ *     latest[v] = min(die[v] - 1, max latest[w] - 1)   otherwise, over roads v->w
+ *
+ * computed once per map and explosion, highest values first, as in
+ * Dijkstra's algorithm.  Once every intersection with people on the
+ * roads into it is past its latest round, nobody else can escape, and
+ * everyone left dies no later than the last intersection short of the
+ * hazard limit does.  If that is within the round budget, the outcome
+ * is settled.  A Termination holds no simulation state, so one may
+ * serve any number of simulations of the same map and explosion.
+ */
+
+import java.util.Arrays;
+
+public class Termination {
+    private static final int NEVER = Integer.MIN_VALUE; // latest round when escape is impossible
+
+    private final int maxRounds; // rounds a simulation may run
+    private final int[] die; // die[v] = first round at which intersection v is dead
+    private final int[] latest; // latest[v] = last round people at v might still escape
+    private final int lastDeath; // round by which every unescaped intersection is dead
+
+    // termination for simulations of map under expl that run for at most
+    // maxRounds rounds, numbered from 0
+    public Termination(RoadMap map, Explosion expl, int maxRounds) {
+        this.maxRounds = maxRounds;
+        CompactFlowNetwork G = map.network();
+        double[] detDists = map.detDists();
+        double hazardLimit = Routes.hazardLimit(map);
+        int n = map.intersections();
+
+        die = new int[n];
+        int last = 0;
+        for (int v = 0; v < n; v++) {
+            die[v] = expl.getTime(detDists[v]);
+            if (detDists[v] <= hazardLimit) last = Math.max(last, die[v]);
+        }
+        lastDeath = last;
+
+        // latest escape rounds, settling the highest first, from the
+        // escaped intersections backwards along roads
+        latest = new int[n];
+        LongMaxHeap heap = new LongMaxHeap(n);
+        for (int v = 0; v < n; v++) {
+            if (detDists[v] > hazardLimit && die[v] > 0) {
+                latest[v] = die[v] - 1;
+                heap.push(key(latest[v], v));
+            }
+            else latest[v] = NEVER;
+        }
+        while (!heap.isEmpty()) {
+            long k = heap.pop();
+            int w = (int) k;
+            if ((int) (k >> 32) != latest[w]) continue; // stale entry
+            for (int m = G.inBegin(w); m < G.inEnd(w); m++) {
+                int v = G.from(G.inEdge(m));
+                int t = Math.min(die[v] - 1, latest[w] - 1);
+                if (t > latest[v] && t >= 0) {
+                    latest[v] = t;
+                    heap.push(key(t, v));
+                }
+            }
+        }
+    }
+
+    private static long key(int round, int v) {
+        return ((long) round << 32) | v;
+    }
+
+    // first round at which intersection v is dead
+    public int deathRound(int v) {
+        return die[v];
+    }
+
+    // last round at which people at intersection v might still escape,
+    // or Integer.MIN_VALUE if they never can
+    public int latestEscape(int v) {
+        return latest[v];
+    }
+
+    // round by which every intersection short of the hazard limit is dead
+    public int lastDeath() {
+        return lastDeath;
+    }
+
+    /*
+     * is the outcome of routes settled, when round is the next one it
+     * would run?  It is once nobody is left on the roads, or once
+     * nobody left can escape and all of them die within the budget
+     */
+    public boolean isSettled(Routes routes, int round) {
+        if (routes.calculateLiveFlow() <= 0) return true;
+        return lastDeath < maxRounds && routes.maxActive(latest) < round;
+    }
+
+    /*
+     * brings routes to its settled outcome, killing everyone left, and
+     * returns the round by which they are all dead
+     */
+    public int finish(Routes routes) {
+        if (routes.calculateLiveFlow() <= 0) return -1;
+        routes.killRemaining();
+        return lastDeath;
+    }
+
+    // max-heap of longs in an array
+    private static class LongMaxHeap {
+        private long[] a;
+        private int n;
+
+        LongMaxHeap(int capacity) {
+            a = new long[Math.max(1, capacity)];
+        }
+
+        boolean isEmpty() { return n == 0; }
+
+        void push(long x) {
+            if (n == a.length) a = Arrays.copyOf(a, 2*n);
+            int i = n++;
+            while (i > 0 && a[(i-1)/2] < x) {
+                a[i] = a[(i-1)/2];
+                i = (i-1)/2;
+            }
+            a[i] = x;
+        }
+
+        long pop() {
+            long top = a[0];
+            long x = a[--n];
+            int i = 0;
+            while (2*i + 1 < n) {
+                int c = 2*i + 1;
+                if (c + 1 < n && a[c+1] > a[c]) c++;
+                if (a[c] <= x) break;
+                a[i] = a[c];
+                i = c;
+            }
+            a[i] = x;
+            return top;
+        }
+    }
+}
@@ -6,13 +6,13 @@ public class TestRoutes {
         Routes rts = new Routes("test5lines.txt", Integer.parseInt(args[0]));
         StdOut.println(rts.getEvacFlow().V());
         int entered = 1;
-        StdDraw.setScale(-1.0*rts.getScale(), rts.getScale());
+        RoundObserver renderer = new StdDrawRenderer(rts.getScale(), 300);
         while (entered == 1) {
         
             
                 for (int i = 0; i < 1; i++) {
                     
-                    rts.draw();
+                    renderer.roundFinished(rts, i, rts.getHazardRadius());
                     rts.nextState();
         
 //            StdDraw.show(100000);